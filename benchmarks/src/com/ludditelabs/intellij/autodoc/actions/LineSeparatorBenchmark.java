@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CRLF normalization of the autodoc output, see
+ * AutodocFileTask.replaceContent().
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineSeparatorBenchmark {
+    // Output size in KB.
+    @Param({"16", "256", "4096"})
+    public int size;
+
+    @Param({"\r\n", "\n"})
+    public String separator;
+
+    private String m_text;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String line = "    \"\"\"Process the given file and return result.\"\"\""
+            + separator;
+        StringBuilder sb = new StringBuilder(size * 1024 + line.length());
+        while (sb.length() < size * 1024)
+            sb.append(line);
+        m_text = sb.toString();
+    }
+
+    @Benchmark
+    public String toLf() {
+        return DocumentPatch.toLf(m_text);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Run all plugin benchmarks and save results in JSON.
+ *
+ * Usage:
+ * <pre>
+ *     BenchmarkRunner [result file] [include regexp]
+ * </pre>
+ *
+ * Result file is <pre>benchmarks/results/current.json</pre> by default.
+ * There is no stored baseline: run benchmarks before and after a change
+ * on the same machine and compare the results.
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws RunnerException {
+        String result = args.length > 0
+            ? args[0]
+            : "benchmarks/results/current.json";
+        String include = args.length > 1
+            ? args[1]
+            : "com\\.ludditelabs\\.intellij\\.autodoc\\..*Benchmark";
+
+        File parent = new File(result).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new RunnerException("Can't create " + parent.getPath());
+
+        Options options = new OptionsBuilder()
+            .include(include)
+            .resultFormat(ResultFormatType.JSON)
+            .result(result)
+            .build();
+        new Runner(options).run();
+    }
+}
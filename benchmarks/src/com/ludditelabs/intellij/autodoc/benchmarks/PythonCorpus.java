@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic python sources for benchmarks.
+ *
+ * Files contain classes and functions, about half of them without
+ * docstrings, so autodoc (and fake-autodoc) has something to fix.
+ * Content is generated from a fixed seed, so the same parameters
+ * always give the same corpus.
+ *
+ * Usage:
+ * <pre>
+ *     PythonCorpus OUT_DIR [files] [size in KB]
+ * </pre>
+ */
+public class PythonCorpus {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int FILES_PER_PACKAGE = 50;
+
+    private final int m_files;
+    private final int m_sizeKb;
+
+    /**
+     * Construct generator.
+     *
+     * @param files number of files.
+     * @param sizeKb approximate size of each file in kilobytes.
+     */
+    public PythonCorpus(int files, int sizeKb) {
+        m_files = files;
+        m_sizeKb = sizeKb;
+    }
+
+    @NotNull
+    private static String function(@NotNull Random random, @NotNull String indent,
+                                   int index) {
+        StringBuilder sb = new StringBuilder();
+        String name = "func_" + index;
+        sb.append(indent).append("def ").append(name).append("(arg1, arg2=None):\n");
+        if (random.nextBoolean()) {
+            sb.append(indent).append("    \"\"\"Process arguments.\n\n")
+                .append(indent).append("    Args:\n")
+                .append(indent).append("        arg1: first argument.\n")
+                .append(indent).append("    \"\"\"\n");
+        }
+        int lines = 2 + random.nextInt(8);
+        for (int i = 0; i < lines; i++) {
+            sb.append(indent).append("    value_").append(i)
+                .append(" = arg1 + ").append(random.nextInt(1000)).append('\n');
+        }
+        sb.append(indent).append("    return value_0\n\n");
+        return sb.toString();
+    }
+
+    /**
+     * Generate content of a single file.
+     *
+     * @param seed random seed, usually index of the file.
+     * @return python source.
+     */
+    @NotNull
+    public String source(int seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        sb.append("import os\nimport sys\n\n\n");
+
+        int size = m_sizeKb * 1024;
+        int index = 0;
+        while (sb.length() < size) {
+            if (random.nextInt(4) == 0) {
+                sb.append("class Class").append(index).append("(object):\n");
+                for (int i = 0; i < 3 && sb.length() < size; i++)
+                    sb.append(function(random, "    ", index++));
+            }
+            else {
+                sb.append(function(random, "", index++));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Write corpus to the given directory.
+     *
+     * Files are split to packages by FILES_PER_PACKAGE files.
+     *
+     * @param dir output directory.
+     * @return written files.
+     * @throws IOException on write errors.
+     */
+    @NotNull
+    public List<File> write(@NotNull File dir) throws IOException {
+        List<File> result = new ArrayList<>(m_files);
+        for (int i = 0; i < m_files; i++) {
+            File pkg = new File(dir, "pkg" + i / FILES_PER_PACKAGE);
+            if (!pkg.isDirectory())
+                Files.createDirectories(pkg.toPath());
+
+            File file = new File(pkg, "module" + i + ".py");
+            try (Writer writer = new OutputStreamWriter(
+                Files.newOutputStream(file.toPath()), UTF8)) {
+                writer.write(source(i));
+            }
+            result.add(file);
+        }
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: PythonCorpus OUT_DIR [files] [size in KB]");
+            System.exit(2);
+        }
+        int files = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        List<File> written = new PythonCorpus(files, size).write(new File(args[0]));
+        System.out.println(String.format("Written %d files to %s",
+            written.size(), args[0]));
+    }
+}
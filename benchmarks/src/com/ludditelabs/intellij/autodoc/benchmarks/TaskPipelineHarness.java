@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.benchmarks;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.PlatformTestCase;
+import com.intellij.testFramework.PsiTestUtil;
+import com.intellij.util.ui.UIUtil;
+import com.ludditelabs.intellij.autodoc.actions.AutodocBaseCommandTask;
+import com.ludditelabs.intellij.autodoc.actions.AutodocFileTask;
+import com.ludditelabs.intellij.autodoc.actions.AutodocProjectTask;
+import com.ludditelabs.intellij.autodoc.index.AutodocFileIndex;
+import com.ludditelabs.intellij.autodoc.timing.RunTimingsHistory;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * End to end benchmark of the autodoc tasks in a headless IDE.
+ *
+ * Generates python corpus (see PythonCorpus), adds it to the test project
+ * and runs file and project tasks against the stand-in tool
+ * <pre>benchmarks/tools/fake-autodoc</pre>. Prints latency percentiles
+ * and throughput of the tasks and per-phase timings, see RunTimingsHistory.
+ *
+ * Parameters:
+ *
+ * - <pre>-Dludditelabs.bench.files=N</pre> - corpus files (default 200);
+ * - <pre>-Dludditelabs.bench.size=KB</pre> - file size (default 4);
+ * - <pre>-Dludditelabs.bench.iterations=N</pre> - runs of each task
+ *   (default 10);
+ * - <pre>-Dludditelabs.autodoc.exe=PATH</pre> - tool to run, fake-autodoc
+ *   by default (working directory must be the project root then).
+ *
+ * Fake tool behavior is set by FAKE_AUTODOC_* environment variables,
+ * see the tool's help.
+ */
+public class TaskPipelineHarness extends PlatformTestCase {
+    private static final String FAKE_EXE = "benchmarks/tools/fake-autodoc";
+
+    private final int m_fileCount = Integer.getInteger("ludditelabs.bench.files", 200);
+    private final int m_sizeKb = Integer.getInteger("ludditelabs.bench.size", 4);
+    private final int m_iterations = Integer.getInteger("ludditelabs.bench.iterations", 10);
+    private List<VirtualFile> m_files;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        if (System.getProperty("ludditelabs.autodoc.exe") == null) {
+            System.setProperty("ludditelabs.autodoc.exe",
+                new File(FAKE_EXE).getAbsolutePath());
+        }
+
+        File dir = createTempDirectory();
+        List<File> files = new PythonCorpus(m_fileCount, m_sizeKb).write(dir);
+
+        VirtualFile root = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(dir);
+        assertNotNull(root);
+        PsiTestUtil.addContentRoot(myModule, root);
+
+        m_files = new ArrayList<>(files.size());
+        for (File file : files) {
+            VirtualFile vfile = LocalFileSystem.getInstance().refreshAndFindFileByIoFile(file);
+            assertNotNull(vfile);
+            m_files.add(vfile);
+        }
+    }
+
+    // Run the task and wait for document changes.
+    private static long runTask(@NotNull AutodocBaseCommandTask task) {
+        long start = System.nanoTime();
+        task.run(new EmptyProgressIndicator());
+        UIUtil.dispatchAllInvocationEvents();
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private static void report(@NotNull String title, @NotNull long[] millis,
+                               int filesPerRun) {
+        long[] sorted = Arrays.copyOf(millis, millis.length);
+        Arrays.sort(sorted);
+        long total = 0;
+        for (long value : sorted)
+            total += value;
+        System.out.println(String.format(
+            "%s: %d runs, p50 %d ms, p95 %d ms, max %d ms, %.1f files/s",
+            title, sorted.length, RunTimingsHistory.percentile(sorted, 50),
+            RunTimingsHistory.percentile(sorted, 95),
+            sorted[sorted.length - 1],
+            total == 0 ? 0.0 : filesPerRun * sorted.length * 1000.0 / total));
+    }
+
+    public void testFileTask() {
+        // Each run gets another file to not hit the result cache.
+        long[] millis = new long[Math.min(m_iterations, m_files.size())];
+        for (int i = 0; i < millis.length; i++) {
+            Document document = FileDocumentManager.getInstance().getDocument(
+                m_files.get(i));
+            assertNotNull(document);
+            millis[i] = runTask(new AutodocFileTask(getProject(), document));
+        }
+        report("AutodocFileTask", millis, 1);
+        System.out.println(RunTimingsHistory.getInstance().summary());
+    }
+
+    public void testProjectTask() {
+        long[] millis = new long[m_iterations];
+        for (int i = 0; i < millis.length; i++) {
+            // Process all files each time.
+            AutodocFileIndex.getInstance(getProject()).clear();
+            millis[i] = runTask(new AutodocProjectTask(getProject()));
+        }
+        report("AutodocProjectTask", millis, m_files.size());
+        System.out.println(RunTimingsHistory.getInstance().summary());
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gzip JSON payload of the statistics uploader and environment UUID.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsPayloadBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int rows;
+
+    private StatisticsUploader.Stat m_stat;
+    private List<UsageRecord> m_usage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        m_stat = new StatisticsUploader.Stat("linux", "amd64", "4.15",
+            "pycharm", "2018.1", Utils.getUuid());
+
+        // Usage of 60 days, see StatisticsUploader.dropOldStat().
+        String[] features = {"file", "project", "changed", "selected"};
+        m_usage = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            m_usage.add(new UsageRecord(
+                String.format("2018-%02d-%02d", 1 + i / 28 % 12, 1 + i % 28),
+                features[i % features.length], "py", i));
+        }
+    }
+
+    @Benchmark
+    public byte[] payload() throws IOException {
+        StatisticsUploader.Payload payload = new StatisticsUploader.Payload(m_stat);
+        for (UsageRecord record : m_usage)
+            payload.add(record);
+        return payload.finish();
+    }
+
+    @Benchmark
+    public String getUuid() {
+        return Utils.getUuid();
+    }
+}
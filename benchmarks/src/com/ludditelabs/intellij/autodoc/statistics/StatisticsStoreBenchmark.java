@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write latency of the statistics stores on real files.
+ *
+ * Each fork gets a new store in the temp dir.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatisticsStoreBenchmark {
+    @Param({"sqlite", "mapped"})
+    public String store;
+
+    private File m_dir;
+    private StatisticsStore m_store;
+    private StatisticsCollector m_collector;
+
+    /**
+     * Open store of the given type in the directory.
+     *
+     * @param type "sqlite" or "mapped".
+     * @param dir directory to place the store files to.
+     * @return opened store.
+     */
+    @NotNull
+    static StatisticsStore open(@NotNull String type, @NotNull File dir)
+        throws IOException, SQLException {
+        if (type.equals("mapped"))
+            return new MappedStatisticsStore(new File(dir, "stats.log").getPath());
+        return new SqliteStatisticsStore(
+            new StatisticsDb(new File(dir, "stats.db").getPath()));
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        m_dir = FileUtil.createTempDirectory("autodoc-bench", null);
+        m_store = open(store, m_dir);
+        m_collector = new StatisticsCollector(m_store);
+        m_collector.setActive(true);
+        m_store.setMetaValue("last_upload", "2018-01-01");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        m_store.close();
+        FileUtil.delete(m_dir);
+    }
+
+    /** In-memory counter increment, no I/O. */
+    @Benchmark
+    public void countUsage() {
+        m_collector.countUsage("file", "py");
+    }
+
+    /** Single write with 100 counters. */
+    @Benchmark
+    public void flush() {
+        for (int i = 0; i < 100; i++)
+            m_collector.countUsage("feature" + i, "py");
+        m_collector.flush();
+    }
+
+    @Benchmark
+    public String getMetaValue() throws IOException {
+        return m_store.getMetaValue("last_upload");
+    }
+
+    @Benchmark
+    public void setMetaValue() throws IOException {
+        m_store.setMetaValue("last_upload", "2018-01-01");
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import com.intellij.openapi.util.io.FileUtil;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resident memory and disk size of the statistics stores.
+ *
+ * Not a JMH benchmark: opens each store with the given number of
+ * usage rows and prints heap growth and size of the store files.
+ * Run with a small fixed heap to reduce GC noise, for example
+ * <pre>-Xms64m -Xmx64m</pre>.
+ *
+ * Usage:
+ * <pre>
+ *     StatisticsStoreFootprint [rows]
+ * </pre>
+ */
+public class StatisticsStoreFootprint {
+    private static long usedHeap() throws InterruptedException {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static long dirSize(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                size += file.length();
+        }
+        return size;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 6000;
+
+        List<UsageRecord> records = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            String date = String.format("2018-%02d-%02d", 1 + i / 2800 % 12,
+                1 + i / 100 % 28);
+            records.add(new UsageRecord(date, "feature" + i % 100, "py", 1));
+        }
+
+        for (String type : new String[]{"sqlite", "mapped"}) {
+            File dir = FileUtil.createTempDirectory("autodoc-footprint", null);
+            try {
+                try (StatisticsStore store = StatisticsStoreBenchmark.open(type, dir)) {
+                    store.addUsage(records);
+                }
+
+                long before = usedHeap();
+                try (StatisticsStore store = StatisticsStoreBenchmark.open(type, dir)) {
+                    long after = usedHeap();
+                    System.out.println(String.format(
+                        "%-6s rows=%d heap=%d KB disk=%d KB", type, rows,
+                        (after - before) / 1024, dirSize(dir) / 1024));
+                    store.getMetaValue("last_upload");
+                }
+            }
+            finally {
+                FileUtil.delete(dir);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import com.intellij.openapi.util.io.FileUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of the statistics stores: open existing store
+ * with 60 days of usage and read today's counters.
+ *
+ * Mapped store replays its log on open, so it's measured with and
+ * without garbage left by updates before the compaction.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StatisticsStoreStartupBenchmark {
+    private static final int DAYS = 60;
+
+    @Param({"sqlite", "mapped"})
+    public String store;
+
+    @Param({"10", "100"})
+    public int features;
+
+    private File m_dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, SQLException {
+        m_dir = FileUtil.createTempDirectory("autodoc-bench", null);
+        try (StatisticsStore s = StatisticsStoreBenchmark.open(store, m_dir)) {
+            s.setMetaValue("last_upload", "2018-01-01");
+            for (int day = 1; day <= DAYS; day++) {
+                List<UsageRecord> records = new ArrayList<>();
+                String date = String.format("2018-%02d-%02d",
+                    1 + (day - 1) / 28, 1 + (day - 1) % 28);
+                for (int i = 0; i < features; i++)
+                    records.add(new UsageRecord(date, "feature" + i, "py", 1));
+                // Several flushes a day, as in the IDE.
+                for (int n = 0; n < 10; n++)
+                    s.addUsage(records);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtil.delete(m_dir);
+    }
+
+    @Benchmark
+    public int open() throws Exception {
+        try (StatisticsStore s = StatisticsStoreBenchmark.open(store, m_dir)) {
+            return s.getUsage("2018-03-04").size();
+        }
+    }
+}
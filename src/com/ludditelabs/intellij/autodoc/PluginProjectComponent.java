@@ -19,12 +19,16 @@ package com.ludditelabs.intellij.autodoc;
 import com.intellij.openapi.components.AbstractProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
-import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.ludditelabs.intellij.autodoc.actions.AutodocFileScheduler;
 import com.ludditelabs.intellij.autodoc.actions.AutodocFileTask;
 import com.ludditelabs.intellij.autodoc.actions.AutodocProjectTask;
+import com.ludditelabs.intellij.autodoc.actions.AutodocTaskRegistry;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.List;
+
 public class PluginProjectComponent extends AbstractProjectComponent {
     private static final Logger LOG = Logger.getInstance(PluginProjectComponent.class);
 
@@ -35,29 +39,49 @@ public class PluginProjectComponent extends AbstractProjectComponent {
     @Override
     public void projectOpened() {
         PluginApp.getInstance().initGlobalParts(myProject);
+
+        // Scheduler listens for document saves, so create it
+        // before the first save to make "run on save" work.
+        AutodocFileScheduler.getInstance(myProject);
     }
 
     /**
      * Run autodoc on a single file.
      *
-     * Processing will run in a cancelable background task.
+     * Processing will run in a cancelable background task. If the file
+     * is already processing then the run is restarted.
      *
      * @param document document to process.
      * @see AutodocFileTask
+     * @see AutodocFileScheduler
      */
     public void runAutodoc(@NotNull final Document document) {
-        ProgressManager.getInstance().run(
-            new AutodocFileTask(myProject, document));
+        AutodocFileScheduler.getInstance(myProject).schedule(document, 0);
     }
 
     /**
      * Run autodoc on a whole project.
      *
-     * Processing will run in a cancelable background task.
+     * Processing will run in a cancelable background task. If the project
+     * is already processing then the run is queued.
      *
-     * @see AutodocFileTask
+     * @see AutodocProjectTask
      */
     public void runAutodoc() {
-        ProgressManager.getInstance().run(new AutodocProjectTask(myProject));
+        AutodocTaskRegistry.getInstance().submit(
+            new AutodocProjectTask(myProject));
+    }
+
+    /**
+     * Run autodoc on the given project files.
+     *
+     * Files are processed in a single cancelable background task.
+     *
+     * @param files files to process.
+     * @see AutodocProjectTask
+     */
+    public void runAutodoc(@NotNull List<VirtualFile> files) {
+        AutodocTaskRegistry.getInstance().submit(
+            new AutodocProjectTask(myProject, files));
     }
 }
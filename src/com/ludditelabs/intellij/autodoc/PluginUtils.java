@@ -16,31 +16,28 @@
 
 package com.ludditelabs.intellij.autodoc;
 
-import com.intellij.execution.ui.ConsoleView;
-import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.notification.Notification;
 import com.intellij.notification.NotificationListener;
 import com.intellij.notification.NotificationType;
 import com.intellij.notification.Notifications;
-import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ContentIterator;
 import com.intellij.openapi.roots.ProjectFileIndex;
 import com.intellij.openapi.roots.ProjectRootManager;
-import com.intellij.openapi.util.Key;
-import com.intellij.openapi.util.UserDataHolder;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.ui.AppUIUtil;
-import com.ludditelabs.intellij.autodoc.ui.AutodocToolWindow;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 
 /**
  * Various helper utils.
  */
 public class PluginUtils {
-    private static final Key<Boolean> LOCK_KEY = new Key<>("AutodocLock");
-
     /**
      * Get content root path for the given file.
      *
@@ -58,83 +55,99 @@ public class PluginUtils {
     }
 
     /**
-     * Show notification popup.
+     * Check if the file is a python source file.
      *
-     * @param project current project.
-     * @param title notification title.
-     * @param message message to show.
-     * @param type notification type.
+     * @param file file to check.
+     * @return true if the file can be processed by autodoc.
      */
-    public static void showNotification(@Nullable Project project,
-                                        @NotNull String title,
-                                        @NotNull String message,
-                                        @NotNull NotificationType type) {
-        showNotification(project, title, message, type, null);
-    }
-
-    public static void showNotification(@Nullable Project project,
-                                        @NotNull String title,
-                                        @NotNull String message,
-                                        @NotNull NotificationType type,
-                                        @Nullable NotificationListener listener) {
-        Notification n = new Notification(
-            "Autodoc", title, message, type, listener);
-        Notifications.Bus.notify(n, project);
+    public static boolean isPythonFile(@NotNull VirtualFile file) {
+        return !file.isDirectory()
+            && ("py".equals(file.getExtension())
+            || "py".equals(file.getFileType().getDefaultExtension()));
     }
 
     /**
-     * Show content in the tool window console.
+     * Get python files of the project.
      *
-     * This method popups tool window with console view if there is something
-     * to show. Otherwise console will be silently cleared (without showing).
+     * Files are collected from all content roots of the project,
+     * excluded folders and ignored files are skipped.
+     *
+     * NOTE: must be called inside read action.
      *
      * @param project current project.
-     * @param content content to show.
+     * @return list of python files.
      */
-    public static void showOutput(@NotNull final Project project,
-                                  @NotNull final String content) {
-        ApplicationManager.getApplication().invokeLater(new Runnable() {
+    public static @NotNull List<VirtualFile> getPythonFiles(@NotNull final Project project) {
+        final List<VirtualFile> files = new ArrayList<>();
+        ProjectFileIndex projectFileIndex = ProjectRootManager.getInstance(project).getFileIndex();
+        projectFileIndex.iterateContent(new ContentIterator() {
             @Override
-            public void run() {
-                if (content.isEmpty())
-                    AutodocToolWindow.clearConsole(project);
-                else {
-                    ConsoleView console = AutodocToolWindow.activateConsole(project);
-                    console.clear();
-                    console.print(content, ConsoleViewContentType.NORMAL_OUTPUT);
-                }
+            public boolean processFile(VirtualFile file) {
+                if (isPythonFile(file))
+                    files.add(file);
+                return true;
             }
         });
+        return files;
     }
 
     /**
-     * Get lock state for the given object.
+     * Get python files from the given files and directories.
+     *
+     * Directories are expanded recursively, excluded folders and ignored
+     * files are skipped. Files outside of the project content are dropped.
      *
-     * NOTE: must be called in AWT thread.
+     * NOTE: must be called inside read action.
+     *
+     * @param project current project.
+     * @param roots files and directories.
+     * @return list of python files without duplicates.
      */
-    public static boolean getLockState(@NotNull final UserDataHolder holder) {
-        try {
-            return holder.getUserData(LOCK_KEY);
-        }
-        catch (NullPointerException e) {
-            return false;
+    public static @NotNull List<VirtualFile> getPythonFiles(@NotNull final Project project,
+                                                            @NotNull VirtualFile[] roots) {
+        final Set<VirtualFile> files = new LinkedHashSet<>();
+        final ProjectFileIndex projectFileIndex = ProjectRootManager.getInstance(project).getFileIndex();
+        for (VirtualFile root : roots) {
+            if (!root.isDirectory()) {
+                if (isPythonFile(root) && projectFileIndex.isInContent(root))
+                    files.add(root);
+                continue;
+            }
+
+            projectFileIndex.iterateContentUnderDirectory(root, new ContentIterator() {
+                @Override
+                public boolean processFile(VirtualFile file) {
+                    if (isPythonFile(file))
+                        files.add(file);
+                    return true;
+                }
+            });
         }
+        return new ArrayList<>(files);
     }
 
     /**
-     * Set lock state for the given object.
+     * Show notification popup.
      *
-     * This state is used to indicate what item is processing.
+     * @param project current project.
+     * @param title notification title.
+     * @param message message to show.
+     * @param type notification type.
      */
-    public static void setLockState(@Nullable final UserDataHolder holder, final boolean state) {
-        if (holder != null) {
-            AppUIUtil.invokeOnEdt(new Runnable() {
-                @Override
-                public void run() {
-                    holder.putUserData(LOCK_KEY, state);
-                }
-            });
-        }
+    public static void showNotification(@Nullable Project project,
+                                        @NotNull String title,
+                                        @NotNull String message,
+                                        @NotNull NotificationType type) {
+        showNotification(project, title, message, type, null);
     }
 
+    public static void showNotification(@Nullable Project project,
+                                        @NotNull String title,
+                                        @NotNull String message,
+                                        @NotNull NotificationType type,
+                                        @Nullable NotificationListener listener) {
+        Notification n = new Notification(
+            "Autodoc", title, message, type, listener);
+        Notifications.Bus.notify(n, project);
+    }
 }
@@ -16,20 +16,47 @@
 
 package com.ludditelabs.intellij.autodoc.actions;
 
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.ExecutionHelper;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessEvent;
 import com.intellij.execution.process.ProcessHandler;
 import com.intellij.notification.NotificationType;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
 import com.ludditelabs.intellij.autodoc.PluginUtils;
 import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
 import com.ludditelabs.intellij.autodoc.config.PluginSettings;
+import com.ludditelabs.intellij.autodoc.execution.AutodocOutputListener;
+import com.ludditelabs.intellij.autodoc.execution.AutodocProcess;
+import com.ludditelabs.intellij.autodoc.execution.AutodocRequest;
+import com.ludditelabs.intellij.autodoc.execution.AutodocResponse;
+import com.ludditelabs.intellij.autodoc.execution.AutodocScheduler;
+import com.ludditelabs.intellij.autodoc.execution.AutodocWatchdog;
+import com.ludditelabs.intellij.autodoc.execution.AutodocWorkerPool;
+import com.ludditelabs.intellij.autodoc.execution.ProcessKiller;
+import com.ludditelabs.intellij.autodoc.timing.RunTimings;
+import com.ludditelabs.intellij.autodoc.timing.RunTimingsHistory;
+import com.ludditelabs.intellij.autodoc.ui.AutodocToolWindow;
 import com.ludditelabs.intellij.common.execution.ExternalCommand;
+import com.ludditelabs.intellij.common.execution.ExternalCommandListener;
+import com.ludditelabs.intellij.common.execution.ExternalCommandResult;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -40,14 +67,32 @@ import java.io.File;
  * - If above step fails then it shows error notification.
  * - Otherwise it calls execute().
  *
+ * Subclasses build AutodocRequest and pass it to runRequest(), which
+ * executes it on a warm worker from the AutodocWorkerPool or, if the
+ * pool is not available, in a separate process. Requests with stdin
+ * input are executed by AutodocProcess, other ones by ExternalCommand.
+ *
+ * Output of requests with output listener is passed to the listener,
+ * see AutodocConsoleStream.
+ *
  * Also it supports task cancellation.
  */
 public class AutodocBaseCommandTask extends Task.Backgroundable {
     private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.task");
+    private static final long CANCEL_POLL_MS = 50;
     @NotNull private final Project m_project;
     private final String m_exePath;
     private boolean m_canceled = false;
-    private ProcessHandler m_handler = null;
+    private volatile ProcessHandler m_handler = null;
+    private final Set<AutodocRequest> m_requests = ContainerUtil.newConcurrentSet();
+    private volatile boolean m_cancelRequested = false;
+    private volatile boolean m_finished = false;
+    private volatile boolean m_timedOut = false;
+    // Time when run() is started, see remainingBudgetMs().
+    private volatile long m_runStart = 0;
+    // Time of the first cancel request, see onCancelRequested().
+    private volatile long m_cancelTime = 0;
+    @NotNull private final RunTimings m_timings = new RunTimings(getClass().getSimpleName());
 
     /**
      * Construct task.
@@ -88,22 +133,304 @@ public class AutodocBaseCommandTask extends Task.Backgroundable {
      *
      * @param handler process handler.
      */
-    protected void setCurrentHandler(@Nullable ProcessHandler handler) {
+    protected synchronized void setCurrentHandler(@Nullable ProcessHandler handler) {
         if (m_handler != null) {
-            m_handler.destroyProcess();
+            // Kill the whole process tree in background.
+            if (m_handler instanceof OSProcessHandler)
+                ProcessKiller.kill(((OSProcessHandler)m_handler).getProcess());
+            else
+                m_handler.destroyProcess();
         }
         m_handler = handler;
     }
 
+    /** Path to the autodoc tool. */
+    @NotNull
+    protected String exePath() {
+        return m_exePath;
+    }
+
     /**
      * Create common autodoc command.
-     * @return autodoc command with basic parameters.
+     *
+     * @param request request to build command for.
+     * @return autodoc command with parameters of the request.
      */
-    protected ExternalCommand createCommand() {
+    protected ExternalCommand createCommand(@NotNull AutodocRequest request) {
         ExternalCommand cmd = new ExternalCommand(project(), m_exePath);
+        cmd.setTitle(request.title());
+        cmd.setWorkingDirectory(request.workingDirectory());
+        for (String param : request.parameters())
+            cmd.addParameters(param);
         return cmd;
     }
 
+    // Helper method to log request latency.
+    private void logLatency(@NotNull AutodocRequest request, long start,
+                            boolean pooled) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        LOG.debug(String.format("%s: %d ms (%s)", request.title(), ms,
+            pooled ? "worker" : "process"));
+    }
+
+    // Pass output left in the worker response to the request's output
+    // listener. Streaming workers send it by chunks while the request is
+    // processing, so the response has nothing to pass then.
+    @NotNull
+    private static AutodocResponse forwardOutput(@NotNull AutodocRequest request,
+                                                 @NotNull AutodocResponse response) {
+        AutodocOutputListener listener = request.outputListener();
+        if (listener == null)
+            return response;
+
+        String stdout = response.stdout();
+        String stderr = response.stderr();
+        if (request.isStreamed(false)) {
+            listener.onOutput(stdout, false);
+            stdout = "";
+        }
+        if (request.isStreamed(true)) {
+            listener.onOutput(stderr, true);
+            stderr = "";
+        }
+        return AutodocResponse.create(response.isSuccess() ? 0 : 1,
+            stdout, stderr);
+    }
+
+    /**
+     * Pass request result to processResponse() if the task is not canceled.
+     *
+     * @param indicator task progress indicator.
+     * @param response request result.
+     */
+    protected void dispatchResponse(@NotNull ProgressIndicator indicator,
+                                    @NotNull AutodocResponse response) {
+        if (indicator.isCanceled() || isCanceled() || m_cancelRequested) {
+            AutodocToolWindow.clearConsole(project());
+            return;
+        }
+        processResponse(response);
+    }
+
+    /**
+     * Priority of the task's requests.
+     *
+     * Number of autodoc processes is limited, higher priority requests
+     * are started first, see AutodocScheduler.
+     */
+    @NotNull
+    protected AutodocScheduler.Priority priority() {
+        return AutodocScheduler.Priority.PROJECT;
+    }
+
+    /**
+     * Execute autodoc request and wait for its result.
+     *
+     * Request is executed by a pooled worker if possible,
+     * otherwise separate autodoc process is started.
+     * If there are too many running processes then the request waits
+     * for a free slot.
+     *
+     * This method may be called from several threads at once,
+     * all running requests are canceled with the task.
+     *
+     * @param request request to execute.
+     * @return request result.
+     * @throws ExecutionException if process can't be started.
+     * @throws IOException if worker fails or the request is canceled.
+     */
+    @NotNull
+    protected AutodocResponse executeRequest(@NotNull AutodocRequest request)
+        throws ExecutionException, IOException {
+        LOG.debug(request.commandLineString());
+        request.setTimings(m_timings);
+        m_requests.add(request);
+        try {
+            // Task is canceled before we registered the request.
+            if (m_cancelRequested)
+                request.cancel();
+
+            AutodocScheduler scheduler = AutodocScheduler.getInstance();
+            scheduler.acquire(priority(), m_project, request);
+            try {
+                long start = System.nanoTime();
+                ScheduledFuture<?> watch = AutodocWatchdog.watch(request);
+                AutodocResponse response;
+                boolean pooled;
+                try {
+                    response = AutodocWorkerPool.getInstance().execute(m_exePath, request);
+                    pooled = response != null;
+                    if (pooled) {
+                        long output = m_timings.start();
+                        response = forwardOutput(request, response);
+                        m_timings.finish(RunTimings.Phase.OUTPUT, output);
+                    }
+                    else
+                        response = AutodocProcess.execute(m_exePath, request);
+                }
+                catch (IOException | ExecutionException e) {
+                    if (request.isTimedOut())
+                        throw timeoutError(request);
+                    throw e;
+                }
+                finally {
+                    AutodocWatchdog.unwatch(watch);
+                }
+                logLatency(request, start, pooled);
+
+                // Process is killed, its output is useless.
+                if (request.isTimedOut())
+                    throw timeoutError(request);
+                return response;
+            }
+            finally {
+                scheduler.release();
+            }
+        }
+        finally {
+            m_requests.remove(request);
+        }
+    }
+
+    /** Phase timings of this run, see RunTimingsHistory. */
+    @NotNull
+    protected RunTimings timings() {
+        return m_timings;
+    }
+
+    @NotNull
+    private static IOException timeoutError(@NotNull AutodocRequest request) {
+        return new IOException(String.format("%s: timed out after %d s.",
+            request.title(), TimeUnit.MILLISECONDS.toSeconds(request.timeout())));
+    }
+
+    /**
+     * Cancel all running requests.
+     *
+     * Requests started after this call are canceled immediately.
+     */
+    protected void cancelRequests() {
+        m_cancelRequested = true;
+        for (AutodocRequest request : m_requests) {
+            request.cancel();
+        }
+    }
+
+    /**
+     * Execute autodoc request and pass its result to processResponse().
+     *
+     * @param request request to execute.
+     * @param indicator task progress indicator.
+     * @param file file to show in the error dialog or null.
+     * @see #executeRequest(AutodocRequest)
+     */
+    protected void runRequest(@NotNull final AutodocRequest request,
+                              @NotNull final ProgressIndicator indicator,
+                              @Nullable VirtualFile file) {
+        indicator.setText(request.title() + "...");
+
+        // ExternalCommand can't write to stdin and collects whole output
+        // in memory, so it's used only for requests without output
+        // listener when the worker pool is unavailable.
+        if (request.input() != null || request.outputListener() != null
+            || AutodocWorkerPool.getInstance().isAvailable(m_exePath)) {
+            try {
+                dispatchResponse(indicator, executeRequest(request));
+            }
+            catch (ExecutionException e) {
+                if (!indicator.isCanceled() && !isCanceled()) {
+                    ExecutionHelper.showErrors(
+                        project(), Collections.singletonList(e),
+                        request.title(), file);
+                }
+            }
+            catch (IOException e) {
+                if (!indicator.isCanceled() && !isCanceled()) {
+                    LOG.debug(e);
+                    showError(e.getLocalizedMessage());
+                }
+            }
+            return;
+        }
+
+        LOG.debug(request.commandLineString());
+        request.setTimings(m_timings);
+        ExternalCommand cmd = createCommand(request);
+
+        AutodocScheduler scheduler = AutodocScheduler.getInstance();
+        try {
+            scheduler.acquire(priority(), m_project, request);
+        }
+        catch (IOException e) {
+            // Canceled while waiting.
+            LOG.debug(e);
+            return;
+        }
+
+        // Measure execution only, not the wait for a free slot.
+        final long start = System.nanoTime();
+        cmd.addListener(new ExternalCommandListener() {
+            @Override
+            public void startNotified(ProcessEvent event) {
+                setCurrentHandler(event.getProcessHandler());
+
+                // Stop the process on cancel or timeout.
+                request.setCancelHook(new Runnable() {
+                    @Override
+                    public void run() {
+                        setCurrentHandler(null);
+                    }
+                });
+            }
+
+            @Override
+            public void consume(ExternalCommandResult result) {
+                // ExternalCommand doesn't tell when the process is spawned.
+                m_timings.finish(RunTimings.Phase.EXEC, start);
+                long output = m_timings.start();
+                logLatency(request, start, false);
+                if (request.isTimedOut()) {
+                    showError(timeoutError(request).getLocalizedMessage());
+                    return;
+                }
+                AutodocResponse response = AutodocResponse.create(result);
+                m_timings.finish(RunTimings.Phase.OUTPUT, output);
+                dispatchResponse(indicator, response);
+            }
+        });
+
+        m_requests.add(request);
+        if (m_cancelRequested)
+            request.cancel();
+        ScheduledFuture<?> watch = AutodocWatchdog.watch(request);
+        try {
+            if (!request.isCanceled())
+                cmd.execute();
+        }
+        catch (ExecutionException e) {
+            ExecutionHelper.showErrors(
+                project(), Collections.singletonList(e),
+                cmd.title(), file);
+        }
+        finally {
+            AutodocWatchdog.unwatch(watch);
+            request.setCancelHook(null);
+            m_requests.remove(request);
+            scheduler.release();
+        }
+    }
+
+    /**
+     * This method gets called with the result of runRequest().
+     *
+     * It's not called if the task is canceled.
+     *
+     * @param response autodoc result.
+     */
+    protected void processResponse(@NotNull AutodocResponse response) {
+
+    }
+
     /**
      * This method gets called before processing.
      */
@@ -127,6 +454,70 @@ public class AutodocBaseCommandTask extends Task.Backgroundable {
 
     }
 
+    /**
+     * This method gets called if the run is stopped because it's out of
+     * the run budget, right before onAfterRun().
+     *
+     * @param message description for the user.
+     */
+    protected void onRunTimedOut(@NotNull String message) {
+
+    }
+
+    /**
+     * Time left in the run budget.
+     *
+     * @return milliseconds, zero if the budget is spent or -1 if
+     *         the run budget is disabled.
+     */
+    protected long remainingBudgetMs() {
+        long budget = AutodocWatchdog.runBudgetMs();
+        if (budget <= 0 || m_runStart == 0)
+            return -1;
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_runStart);
+        return Math.max(0, budget - elapsed);
+    }
+
+    /**
+     * Stop the task without user interaction.
+     *
+     * Running process is destroyed and its result is dropped.
+     * It's used to stop outdated runs, see AutodocFileScheduler.
+     */
+    public void cancelRun() {
+        onCancelRequested();
+    }
+
+    /**
+     * Items processed by the task: files, project.
+     *
+     * Items are locked while the task is running, the first one is
+     * the primary one, see AutodocTaskRegistry.
+     */
+    @NotNull
+    public List<Object> keys() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Return true if the given task would give the same result.
+     *
+     * In this case it's not started if this task is running.
+     */
+    public boolean isSameRequest(@NotNull AutodocBaseCommandTask other) {
+        return false;
+    }
+
+    /** Return true if the task is stopping. */
+    public boolean isCancelRequested() {
+        return m_cancelRequested;
+    }
+
+    /** Return true if the task is finished. */
+    public boolean isFinished() {
+        return m_finished;
+    }
+
     /** Return true if the task is canceled. */
     public boolean isCanceled() {
         return m_canceled;
@@ -138,14 +529,61 @@ public class AutodocBaseCommandTask extends Task.Backgroundable {
     }
 
     // NOTE: This callback will be invoked on AWT dispatch thread.
-    // TODO: is it ok what we destroy process here?
+    // Processes are killed in background, see ProcessKiller.
+    // Task may be canceled before run() is called, so keys are
+    // released here too; release() ignores already released keys.
     @Override
     public void onCancel() {
+        onCancelRequested();
+        AutodocTaskRegistry.getInstance().release(this);
+    }
+
+    // NOTE: This callback will be invoked on AWT dispatch thread.
+    @Override
+    public void onSuccess() {
+        AutodocTaskRegistry.getInstance().release(this);
+    }
+
+    // Stop running processes. Called on user cancel, timeout or restart.
+    private void onCancelRequested() {
+        if (m_cancelTime == 0)
+            m_cancelTime = System.nanoTime();
+        cancelRequests();
         if (m_handler != null) {
             setCurrentHandler(null);
         }
     }
 
+    // Watch for the progress indicator cancellation and the run budget.
+    // Processing threads are blocked on processes, so they can't
+    // check the indicator themselves.
+    @NotNull
+    private List<ScheduledFuture<?>> startWatchers(@NotNull final ProgressIndicator indicator) {
+        List<ScheduledFuture<?>> watchers = new ArrayList<>();
+        watchers.add(JobScheduler.getScheduler().scheduleWithFixedDelay(
+            new Runnable() {
+                @Override
+                public void run() {
+                    if (indicator.isCanceled() && !m_cancelRequested)
+                        onCancelRequested();
+                }
+            }, CANCEL_POLL_MS, CANCEL_POLL_MS, TimeUnit.MILLISECONDS));
+
+        ScheduledFuture<?> budget = AutodocWatchdog.watch(
+            AutodocWatchdog.runBudgetMs(), new Runnable() {
+                @Override
+                public void run() {
+                    LOG.warn(getTitle() + ": run is timed out.");
+                    m_timedOut = true;
+                    indicator.cancel();
+                    onCancelRequested();
+                }
+            });
+        if (budget != null)
+            watchers.add(budget);
+        return watchers;
+    }
+
     private boolean checkExe() {
         // Check if autodoc tool exists.
         File exe = new File(m_exePath);
@@ -184,7 +622,10 @@ public class AutodocBaseCommandTask extends Task.Backgroundable {
     }
 
     private void doRun(@NotNull final ProgressIndicator indicator) {
-        if (!checkExe())
+        long start = m_timings.start();
+        boolean ok = checkExe();
+        m_timings.finish(RunTimings.Phase.CHECK_EXE, start);
+        if (!ok)
             return;
 
         else if (indicator.isCanceled() || m_project.isDisposed())
@@ -195,19 +636,40 @@ public class AutodocBaseCommandTask extends Task.Backgroundable {
 
     @Override
     public void run(@NotNull final ProgressIndicator indicator) {
+        m_runStart = System.nanoTime();
+        List<ScheduledFuture<?>> watchers = startWatchers(indicator);
         try {
             onBeforeRun();
             indicator.setIndeterminate(true);
             doRun(indicator);
         }
         finally {
+            for (ScheduledFuture<?> watcher : watchers)
+                AutodocWatchdog.unwatch(watcher);
             setCurrentHandler(null);
-            if (indicator.isCanceled()) {
+            if (m_timedOut) {
+                m_canceled = true;
+                String message = String.format(
+                    "Run is stopped: it takes longer than %d s " +
+                    "(-Dludditelabs.autodoc.timeout.run).",
+                    TimeUnit.MILLISECONDS.toSeconds(AutodocWatchdog.runBudgetMs()));
+                onRunTimedOut(message);
+                showError(message);
+            }
+            else if (indicator.isCanceled()) {
                 m_canceled = true;
                 PluginUtils.showNotification(project(),
                     "Autodoc", "Canceled.", NotificationType.WARNING);
             }
             onAfterRun();
+            if (m_cancelTime != 0) {
+                LOG.debug(String.format("%s: cancel to idle %d ms.", getTitle(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - m_cancelTime)));
+            }
+            m_timings.finishRun();
+            RunTimingsHistory.getInstance().add(m_timings);
+            m_finished = true;
+            AutodocTaskRegistry.getInstance().release(this);
         }
     }
 }
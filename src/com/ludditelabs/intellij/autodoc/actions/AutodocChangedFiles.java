@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ChangeListManager;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.ludditelabs.intellij.autodoc.PluginProjectComponent;
+import com.ludditelabs.intellij.autodoc.PluginUtils;
+import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Action to run autodoc on python files changed in VCS.
+ *
+ * Modified, added and moved files of all changelists are processed
+ * in a single batch, see AutodocProjectTask.
+ */
+public class AutodocChangedFiles extends AnAction {
+    // Get python files of the project changelists.
+    @NotNull
+    private static List<VirtualFile> getChangedFiles(@NotNull Project project) {
+        ProjectFileIndex index = ProjectRootManager.getInstance(project).getFileIndex();
+        List<VirtualFile> files = new ArrayList<>();
+
+        for (Change change : ChangeListManager.getInstance(project).getAllChanges()) {
+            if (change.getType() == Change.Type.DELETED)
+                continue;
+
+            ContentRevision revision = change.getAfterRevision();
+            VirtualFile file = revision == null ? null
+                : revision.getFile().getVirtualFile();
+
+            if (file != null && file.isValid() && PluginUtils.isPythonFile(file)
+                && index.isInContent(file) && !files.contains(file))
+                files.add(file);
+        }
+        return files;
+    }
+
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        final Project project = e.getProject();
+        if (project == null)
+            return;
+
+        PluginProjectComponent component =
+            project.getComponent(PluginProjectComponent.class);
+
+        // This must not happen because we registered this component.
+        if (component == null)
+            return;
+
+        // If state is true then the project is already processing.
+        if (AutodocTaskRegistry.getInstance().isBusy(project))
+            return;
+
+        List<VirtualFile> files = getChangedFiles(project);
+        if (files.isEmpty()) {
+            PluginUtils.showNotification(project, "Autodoc",
+                "No changed python files.", NotificationType.INFORMATION);
+            return;
+        }
+
+        AutodocFileScheduler.saveAllDocuments();
+        component.runAutodoc(files);
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        final PluginBundleManager manager = PluginBundleManager.getInstance();
+        if (!manager.isPlatformSupported()) {
+            e.getPresentation().setEnabled(false);
+            return;
+        }
+
+        final Project project = e.getProject();
+        boolean is_locked  = project == null || AutodocTaskRegistry.getInstance().isBusy(project);
+        e.getPresentation().setEnabled(!is_locked);
+    }
+}
@@ -26,15 +26,10 @@ import com.intellij.openapi.fileTypes.FileType;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.ludditelabs.intellij.autodoc.PluginProjectComponent;
-import com.ludditelabs.intellij.autodoc.PluginUtils;
 import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
 import com.ludditelabs.intellij.autodoc.statistics.StatisticsManager;
 import org.jetbrains.annotations.Nullable;
 
-// HINT: get list of selected files:
-// DataContext dataContext = e.getDataContext();
-// final VirtualFile[] files = CommonDataKeys.VIRTUAL_FILE_ARRAY.getData(dataContext);
-
 /**
  * Action to run autodoc on current file.
  */
@@ -68,14 +63,13 @@ public class AutodocCurrentFile extends AnAction {
         if (!updateFields(e))
             return;
 
-        // If state is true then the file is already processing.
-        if (PluginUtils.getLockState(m_file))
-            return;
+        // NOTE: if the file is already processing then the scheduler
+        // restarts the run, see AutodocFileScheduler.
 
         PluginProjectComponent component =
             m_project.getComponent(PluginProjectComponent.class);
 
-        FileDocumentManager.getInstance().saveDocument(m_document);
+        // NOTE: AutodocFileTask saves the document if it's required.
         component.runAutodoc(m_document);
         StatisticsManager.countUsage(m_file);
     }
@@ -96,7 +90,9 @@ public class AutodocCurrentFile extends AnAction {
             return;
         }
 
-        boolean is_locked = PluginUtils.getLockState(m_file);
-        e.getPresentation().setEnabled(!is_locked);
+        // If the file is processing then the action restarts the run.
+        boolean is_busy = AutodocTaskRegistry.getInstance().isBusy(m_file);
+        e.getPresentation().setText(is_busy ? "Restart autodoc file" : "Autodoc file");
+        e.getPresentation().setEnabled(true);
     }
 }
@@ -18,10 +18,8 @@ package com.ludditelabs.intellij.autodoc.actions;
 
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
-import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
 import com.ludditelabs.intellij.autodoc.PluginProjectComponent;
-import com.ludditelabs.intellij.autodoc.PluginUtils;
 import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
 
 public class AutodocCurrentProject extends AnAction {
@@ -38,11 +36,9 @@ public class AutodocCurrentProject extends AnAction {
         if (component == null)
             return;
 
-        // If state is true then the project is already processing.
-        if (PluginUtils.getLockState(project))
-            return;
-
-        FileDocumentManager.getInstance().saveAllDocuments();
+        // If the project is already processing then the run is queued
+        // or merged with the running one, see AutodocTaskRegistry.
+        AutodocFileScheduler.saveAllDocuments();
         component.runAutodoc();
     }
 
@@ -54,8 +50,6 @@ public class AutodocCurrentProject extends AnAction {
             return;
         }
 
-        final Project project = e.getProject();
-        boolean is_locked  = project == null || PluginUtils.getLockState(project);
-        e.getPresentation().setEnabled(!is_locked);
+        e.getPresentation().setEnabled(e.getProject() != null);
     }
 }
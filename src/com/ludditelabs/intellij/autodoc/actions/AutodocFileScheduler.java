@@ -0,0 +1,200 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import com.intellij.AppTopics;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileDocumentManagerAdapter;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectRootManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Alarm;
+import com.ludditelabs.intellij.autodoc.PluginUtils;
+import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
+import com.ludditelabs.intellij.autodoc.config.PluginSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Schedules autodoc runs for single files.
+ *
+ * - Runs are delayed and requests for the same file within the delay
+ *   are merged into one run, so repeated saves start a single process.
+ * - If a newer request arrives while the file is processing then the
+ *   running task is stopped and the file is processed again.
+ * - If the file is processed by another task (for example, project run)
+ *   then the run waits for it, see AutodocTaskRegistry.
+ *
+ * If "run on save" option is enabled then python files of the project
+ * are scheduled on each save. Delay may be set with
+ * <pre>-Dludditelabs.autodoc.onsave.delay=MS</pre>. Saves done by the plugin
+ * itself (see saveDocument() and saveAllDocuments()) and saves of a file
+ * version which is already processing don't schedule runs.
+ *
+ * NOTE: all methods must be called in AWT thread.
+ */
+public class AutodocFileScheduler implements Disposable {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.scheduler");
+
+    @NotNull private final Project m_project;
+    @NotNull private final Alarm m_alarm;
+    @NotNull private final Map<VirtualFile, Runnable> m_pending = new HashMap<>();
+    // Number of nested saves started by the plugin.
+    private static int m_pluginSaves = 0;
+
+    public AutodocFileScheduler(@NotNull Project project) {
+        m_project = project;
+        m_alarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+
+        project.getMessageBus().connect(this).subscribe(
+            AppTopics.FILE_DOCUMENT_SYNC, new FileDocumentManagerAdapter() {
+                @Override
+                public void beforeDocumentSaving(@NotNull Document document) {
+                    if (m_pluginSaves == 0 && PluginSettings.getInstance().runOnSave())
+                        onSave(document);
+                }
+            });
+    }
+
+    public static AutodocFileScheduler getInstance(@NotNull Project project) {
+        return ServiceManager.getService(project, AutodocFileScheduler.class);
+    }
+
+    /**
+     * Save the document without scheduling run on save.
+     *
+     * @param document document to save.
+     */
+    public static void saveDocument(@NotNull Document document) {
+        m_pluginSaves++;
+        try {
+            FileDocumentManager.getInstance().saveDocument(document);
+        }
+        finally {
+            m_pluginSaves--;
+        }
+    }
+
+    /**
+     * Save all documents without scheduling runs on save.
+     */
+    public static void saveAllDocuments() {
+        m_pluginSaves++;
+        try {
+            FileDocumentManager.getInstance().saveAllDocuments();
+        }
+        finally {
+            m_pluginSaves--;
+        }
+    }
+
+    private static int saveDelay() {
+        return Integer.getInteger("ludditelabs.autodoc.onsave.delay", 500);
+    }
+
+    private void onSave(@NotNull Document document) {
+        if (!PluginBundleManager.getInstance().isPlatformSupported())
+            return;
+
+        VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+        if (file == null || !PluginUtils.isPythonFile(file)
+            || !ProjectRootManager.getInstance(m_project).getFileIndex().isInContent(file))
+            return;
+
+        // This version of the file is already processing.
+        AutodocBaseCommandTask running = AutodocTaskRegistry.getInstance().get(file);
+        if (running instanceof AutodocFileTask && !running.isCancelRequested()
+            && ((AutodocFileTask)running).isRunFor(document))
+            return;
+
+        schedule(document, saveDelay());
+    }
+
+    /**
+     * Schedule document processing.
+     *
+     * Pending request for the same document is replaced by this one.
+     *
+     * @param document document to process.
+     * @param delay delay in milliseconds.
+     */
+    public void schedule(@NotNull final Document document, int delay) {
+        final VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+        if (file == null)
+            return;
+
+        Runnable previous = m_pending.remove(file);
+        if (previous != null)
+            m_alarm.cancelRequest(previous);
+
+        Runnable request = new Runnable() {
+            @Override
+            public void run() {
+                m_pending.remove(file);
+                start(file, document);
+            }
+        };
+        m_pending.put(file, request);
+        m_alarm.addRequest(request, delay);
+    }
+
+    /** Return true if the file run is scheduled but not started yet. */
+    public boolean isScheduled(@NotNull VirtualFile file) {
+        return m_pending.containsKey(file);
+    }
+
+    /**
+     * Cancel scheduled run of the file.
+     *
+     * Running task is not affected.
+     *
+     * @param file file to cancel.
+     */
+    public void cancel(@NotNull VirtualFile file) {
+        Runnable request = m_pending.remove(file);
+        if (request != null)
+            m_alarm.cancelRequest(request);
+    }
+
+    private void start(@NotNull VirtualFile file, @NotNull Document document) {
+        if (m_project.isDisposed())
+            return;
+
+        AutodocFileTask task = new AutodocFileTask(m_project, document);
+
+        // Newer version of the file is arrived, stop outdated run.
+        // The new one is queued and starts when the old one is finished.
+        AutodocBaseCommandTask running = AutodocTaskRegistry.getInstance().get(file);
+        if (running instanceof AutodocFileTask && !running.isSameRequest(task)) {
+            LOG.debug("Stop outdated run: " + file.getPath());
+            running.cancelRun();
+        }
+
+        AutodocTaskRegistry.getInstance().submit(task);
+    }
+
+    @Override
+    public void dispose() {
+        m_pending.clear();
+    }
+}
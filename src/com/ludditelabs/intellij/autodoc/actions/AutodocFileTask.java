@@ -16,10 +16,8 @@
 
 package com.ludditelabs.intellij.autodoc.actions;
 
-import com.intellij.execution.ExecutionException;
-import com.intellij.execution.ExecutionHelper;
-import com.intellij.execution.process.ProcessEvent;
 import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
 import com.intellij.openapi.command.CommandProcessor;
 import com.intellij.openapi.command.WriteCommandAction;
 import com.intellij.openapi.diagnostic.Logger;
@@ -30,28 +28,57 @@ import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.SystemInfo;
 import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.psi.PsiDocumentManager;
 import com.ludditelabs.intellij.autodoc.PluginUtils;
-import com.ludditelabs.intellij.autodoc.ui.AutodocToolWindow;
-import com.ludditelabs.intellij.common.execution.ExternalCommand;
-import com.ludditelabs.intellij.common.execution.ExternalCommandListener;
-import com.ludditelabs.intellij.common.execution.ExternalCommandResult;
+import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
+import com.ludditelabs.intellij.autodoc.cache.AutodocResultCache;
+import com.ludditelabs.intellij.autodoc.execution.AutodocCapabilities;
+import com.ludditelabs.intellij.autodoc.execution.AutodocOutputListener;
+import com.ludditelabs.intellij.autodoc.execution.AutodocRequest;
+import com.ludditelabs.intellij.autodoc.execution.AutodocResponse;
+import com.ludditelabs.intellij.autodoc.execution.AutodocScheduler;
+import com.ludditelabs.intellij.autodoc.execution.AutodocWatchdog;
+import com.ludditelabs.intellij.autodoc.timing.RunTimings;
+import com.ludditelabs.intellij.autodoc.ui.AutodocConsoleStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 
 /**
  * Task to process single file by the autodoc tool.
+ *
+ * If the tool supports it, document text is passed over stdin and fixed
+ * text is read from stdout (pipe mode). Otherwise the document is saved
+ * and the tool writes result to a temp file.
+ *
+ * Results are cached by the source text, so unchanged sources are not
+ * passed to the tool again, see AutodocResultCache.
  */
 public class AutodocFileTask extends AutodocBaseCommandTask {
     private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.task.file");
+    private static final int MAX_CACHED_REPORT = 64 * 1024;
     private final @NotNull Document m_document;
+    private VirtualFile m_file = null;
+    private String m_outPath = null;
+    private boolean m_pipeMode = false;
+    @NotNull private final AutodocConsoleStream m_output;
+    // Document text and its stamp at the start of the run.
+    @NotNull private String m_text;
+    private long m_stamp;
+    // Result cache key, it's null if the result can't be cached.
+    @Nullable private volatile String m_cacheKey = null;
+    @NotNull private final StringBuilder m_report = new StringBuilder();
+    @NotNull private final List<Object> m_keys;
+    private final long m_requestStamp;
 
     /**
      * Construct task.
@@ -63,6 +90,15 @@ public class AutodocFileTask extends AutodocBaseCommandTask {
                            @NotNull final Document document) {
         super(project);
         m_document = document;
+        m_output = new AutodocConsoleStream(project);
+        m_requestStamp = document.getModificationStamp();
+        m_stamp = m_requestStamp;
+        m_text = document.getText();
+
+        VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+        m_keys = file == null
+            ? Collections.emptyList()
+            : Collections.<Object>singletonList(file);
     }
 
     @Nullable
@@ -76,48 +112,118 @@ public class AutodocFileTask extends AutodocBaseCommandTask {
         }
     }
     // Replace current document content with the given one.
-    private void replaceContent(final String content) {
+    //
+    // Changed hunks are computed in the current (background) thread,
+    // AWT thread only applies them.
+    //
+    // NOTE: package-private for performance tests.
+    void replaceContent(final String content) {
+        // IDE accepts only \n.
+        final String text = SystemInfo.isWindows
+            ? DocumentPatch.toLf(content)
+            : content;
+
+        // Result is built for the text of the run start. If the stamp is
+        // the same then m_text is the document content, so the diff is
+        // computed without read lock and doesn't block writes.
+        if (m_document.getModificationStamp() != m_stamp) {
+            showError("Document is changed during processing.\n" +
+                "Run autodoc again.");
+            return;
+        }
+        final DocumentPatch patch = DocumentPatch.create(m_text, text, m_stamp);
+
+        if (patch.isEmpty())
+            return;
+
         ApplicationManager.getApplication().invokeLater(new Runnable() {
             @Override
             public void run() {
+                // User changed the document while we were processing it.
+                if (!patch.isApplicable(m_document)) {
+                    showError("Document is changed during processing.\n" +
+                        "Run autodoc again.");
+                    return;
+                }
 
+                final RunTimings timings = timings();
+                long start = timings.start();
                 CommandProcessor.getInstance().executeCommand(project(), new Runnable() {
                     @Override
                     public void run() {
                         WriteCommandAction.runWriteCommandAction(project(), new Runnable() {
                             @Override
                             public void run() {
-                                // IDE accepts only \n.
-                                if (SystemInfo.isWindows) {
-                                    m_document.setText(content.replace(
-                                        "\r\n", "\n"));
-                                }
-                                else
-                                    m_document.setText(content);
+                                patch.apply(m_document);
                             }
                         });
                     }
                 }, "Autodoc", DocCommandGroupId.noneGroupId(m_document));
+                timings.finish(RunTimings.Phase.REPLACE, start);
 
-                PsiDocumentManager.getInstance(project()).commitDocument(m_document);
+                // NOTE: we don't commit the document here, PSI is updated
+                // by the background commit for changed ranges only.
+                // Measure how long it takes.
+                final long commitStart = timings.start();
+                PsiDocumentManager.getInstance(project()).performWhenAllCommitted(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            timings.finish(RunTimings.Phase.PSI_COMMIT, commitStart);
+                        }
+                    });
             }
         });
     }
 
+    @NotNull
     @Override
-    protected void onBeforeRun() {
-        // NOTE: Lock state is checked in AutodocCurrentFile action.
-        final VirtualFile file = FileDocumentManager.getInstance().getFile(
-            m_document);
-        PluginUtils.setLockState(file, true);
+    public List<Object> keys() {
+        return m_keys;
+    }
+
+    // Interactive runs go before project ones.
+    @NotNull
+    @Override
+    protected AutodocScheduler.Priority priority() {
+        return AutodocScheduler.Priority.FILE;
+    }
+
+    @Override
+    public boolean isSameRequest(@NotNull AutodocBaseCommandTask other) {
+        if (!(other instanceof AutodocFileTask))
+            return false;
+        AutodocFileTask task = (AutodocFileTask)other;
+        return task.m_document == m_document
+            && task.m_requestStamp == m_requestStamp;
+    }
+
+    // Return true if the task processes the current version of the document.
+    boolean isRunFor(@NotNull Document document) {
+        return m_document == document
+            && m_requestStamp == document.getModificationStamp();
+    }
+
+    @Override
+    protected void onRunTimedOut(@NotNull String message) {
+        m_output.printInfo("\n" + message + "\n");
     }
 
     @Override
     protected void onAfterRun() {
-        // NOTE: Lock state is checked in AutodocCurrentFile action.
-        final VirtualFile file = FileDocumentManager.getInstance().getFile(
-            m_document);
-        PluginUtils.setLockState(file, false);
+        if (m_outPath != null)
+            FileUtil.delete(new File(m_outPath));
+        m_output.finish();
+    }
+
+    // Save document before passing the file to autodoc.
+    private void saveDocument() {
+        ApplicationManager.getApplication().invokeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                AutodocFileScheduler.saveDocument(m_document);
+            }
+        }, ModalityState.defaultModalityState());
     }
 
     @Override
@@ -129,84 +235,161 @@ public class AutodocFileTask extends AutodocBaseCommandTask {
             return;
         }
 
-        String out_filename = getTempFilename();
-        ExternalCommand cmd = createCommand();
-        cmd.setTitle("Autodoc " + file.getName());
-        cmd.setWorkingDirectory(PluginUtils.getRootPath(project(), file));
-        cmd.addParameters(file.getPath());
+        m_file = file;
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
+            @Override
+            public void run() {
+                m_text = m_document.getText();
+                m_stamp = m_document.getModificationStamp();
+            }
+        });
+
+        AutodocRequest request = new AutodocRequest();
+        request.setTitle("Autodoc " + file.getName());
+        request.setWorkingDirectory(PluginUtils.getRootPath(project(), file));
+        request.setTimeout(AutodocWatchdog.fileBudgetMs());
+        request.addParameters(file.getPath());
+
+        // If the tool can read source from stdin then pass document text
+        // directly and get result from stdout.
+        m_pipeMode = AutodocCapabilities.get(exePath()).supportsStdin();
+        if (m_pipeMode) {
+            request.addParameters("--stdin", "--no-fix", "-o", "-");
+            request.setCharset(file.getCharset());
+            request.setInput(m_text);
+            LOG.debug("Pipe mode: " + file.getPath());
+        }
+        else {
+            saveDocument();
+            m_outPath = getTempFilename();
 
-        // If we can create temp filename then save result in it.
-        if (out_filename != null) {
-            cmd.addParameters("--no-fix");
-            cmd.addParameters("-o", out_filename);
+            // If we can create temp filename then save result in it.
+            if (m_outPath != null) {
+                request.addParameters("--no-fix");
+                request.addParameters("-o", m_outPath);
+            }
+            // Otherwise just overwrite original file.
+            else
+                request.addParameters("--fix");
+            LOG.debug("Temp file mode: " + file.getPath());
         }
-        // Otherwise just overwrite original file.
-        else
-            cmd.addParameters("--fix");
 
-        final String out_path = out_filename;
+        // Result can be cached if it's not written to the original file.
+        if (m_pipeMode || m_outPath != null) {
+            m_cacheKey = AutodocResultCache.key(m_text,
+                PluginBundleManager.getInstance().getBundleVersion(),
+                Arrays.asList(file.getPath(), request.workingDirectory(),
+                    AutodocResultCache.configHash(request.workingDirectory())));
+            AutodocResultCache.Entry entry =
+                AutodocResultCache.getInstance().get(m_cacheKey);
+            if (entry != null) {
+                LOG.debug("Cached result: " + file.getPath());
+                applyCached(entry);
+                return;
+            }
+        }
 
-        cmd.addListener(new ExternalCommandListener() {
+        // In pipe mode stdout contains fixed source, so stream only stderr.
+        request.setOutputListener(new AutodocOutputListener() {
             @Override
-            public void startNotified(ProcessEvent event) {
-                setCurrentHandler(event.getProcessHandler());
+            public void onOutput(@NotNull String text, boolean stderr) {
+                m_output.onOutput(text, stderr);
+                collectReport(text);
             }
+        }, !m_pipeMode);
+        m_output.start();
+        runRequest(request, indicator, file);
+    }
 
-            @Override
-            public void consume(ExternalCommandResult result) {
-                if (indicator.isCanceled() || isCanceled()) {
-                    AutodocToolWindow.clearConsole(project());
-                    return;
-                }
+    // Keep report for the result cache.
+    private void collectReport(@NotNull String text) {
+        synchronized (m_report) {
+            if (m_cacheKey == null)
+                return;
 
-                String output = result.allContent().trim();
+            // Don't cache huge reports.
+            if (m_report.length() + text.length() > MAX_CACHED_REPORT) {
+                m_cacheKey = null;
+                m_report.setLength(0);
+            }
+            else {
+                m_report.append(text);
+            }
+        }
+    }
 
-                // NOTE: we show output even on errors.
-                if (!output.isEmpty()) {
-                    PluginUtils.showOutput(project(), output);
-                }
+    // Put the result to the cache.
+    private void cacheResult(@NotNull String content) {
+        String key = m_cacheKey;
+        if (key == null)
+            return;
 
-                if (!result.isSuccess()) {
-                    showError("Finished with errors.\n" + result.stderr());
-                    return;
-                }
+        String report;
+        synchronized (m_report) {
+            report = m_report.toString();
+        }
+        AutodocResultCache.getInstance().put(key,
+            new AutodocResultCache.Entry(content, report));
+    }
 
-                if (output.isEmpty()) {
-                    showInfoOnEmptyOutput();
-                }
+    // Show cached report and apply cached result.
+    private void applyCached(@NotNull AutodocResultCache.Entry entry) {
+        m_output.start();
+        m_output.onOutput(entry.output(), false);
+        if (!m_output.hasOutput())
+            showInfoOnEmptyOutput();
+        replaceContent(entry.content());
+    }
 
-                // If original file is updated then refresh it in the IDE.
-                if (out_path == null) {
-                    VfsUtil.markDirtyAndRefresh(
-                        true,
-                        true,
-                        true,
-                        file);
-                }
-                // If result is saved in the temp file then replace original
-                // document with its content.
-                else {
-                    try {
-                        replaceContent(FileUtil.loadFile(
-                            new File(out_path), file.getCharset()));
-                    }
-                    catch (IOException e) {
-                        e.printStackTrace();
-                        showError(e.getLocalizedMessage());
-                    }
-                }
-            }
-        });
+    @Override
+    protected void processResponse(@NotNull AutodocResponse response) {
+        // NOTE: output is already streamed to the console.
+        if (!response.isSuccess()) {
+            showError("Finished with errors.");
+            return;
+        }
 
-        try {
-            indicator.setText(cmd.title() + "...");
-            LOG.debug(cmd.commandLineString());
-            cmd.execute();
+        if (!m_output.hasOutput()) {
+            showInfoOnEmptyOutput();
         }
-        catch (ExecutionException e) {
-            ExecutionHelper.showErrors(
-                project(), Collections.singletonList(e),
-                cmd.title(), file);
+
+        if (m_pipeMode) {
+            // Tool always prints whole source, empty output means
+            // something went wrong - don't wipe the document.
+            String content = response.stdout();
+            if (!content.isEmpty()) {
+                replaceContent(content);
+                cacheResult(content);
+            }
+        }
+        // If original file is updated then refresh it in the IDE.
+        else if (m_outPath == null) {
+            final RunTimings timings = timings();
+            final long start = timings.start();
+            VfsUtil.markDirty(true, true, m_file);
+            LocalFileSystem.getInstance().refreshFiles(
+                Collections.singletonList(m_file), true, true, new Runnable() {
+                    @Override
+                    public void run() {
+                        timings.finish(RunTimings.Phase.VFS_REFRESH, start);
+                    }
+                });
+        }
+        // If result is saved in the temp file then replace original
+        // document with its content.
+        else {
+            try {
+                long start = timings().start();
+                String content = FileUtil.loadFile(
+                    new File(m_outPath), m_file.getCharset());
+                timings().finish(RunTimings.Phase.TEMP_READ, start);
+                replaceContent(content);
+                cacheResult(content);
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                showError(e.getLocalizedMessage());
+            }
         }
     }
 }
@@ -16,26 +16,73 @@
 
 package com.ludditelabs.intellij.autodoc.actions;
 
-import com.intellij.execution.ExecutionException;
-import com.intellij.execution.ExecutionHelper;
-import com.intellij.execution.process.ProcessEvent;
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.LocalFileSystem;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.ConcurrencyUtil;
+import com.intellij.util.containers.ContainerUtil;
 import com.ludditelabs.intellij.autodoc.PluginUtils;
-import com.ludditelabs.intellij.autodoc.ui.AutodocToolWindow;
-import com.ludditelabs.intellij.common.execution.ExternalCommand;
-import com.ludditelabs.intellij.common.execution.ExternalCommandListener;
-import com.ludditelabs.intellij.common.execution.ExternalCommandResult;
+import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
+import com.ludditelabs.intellij.autodoc.execution.AutodocRequest;
+import com.ludditelabs.intellij.autodoc.execution.AutodocResponse;
+import com.ludditelabs.intellij.autodoc.execution.AutodocWatchdog;
+import com.ludditelabs.intellij.autodoc.index.AutodocFileIndex;
+import com.ludditelabs.intellij.autodoc.index.FileSnapshot;
+import com.ludditelabs.intellij.autodoc.timing.RunTimings;
+import com.ludditelabs.intellij.autodoc.ui.AutodocConsoleStream;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Collections;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Task to process all python files of the project.
+ *
+ * The task builds list of python files of the project content roots
+ * (excluded folders and ignored files are skipped) and passes them
+ * to autodoc explicitly.
+ *
+ * Files are split to shards with similar total size and shards are
+ * processed by several autodoc processes in parallel. Number of processes
+ * is the number of CPUs by default and may be set with
+ * <pre>-Dludditelabs.autodoc.jobs=N</pre>.
+ *
+ * Only files changed since the last run are processed,
+ * see AutodocFileIndex. After the run only files rewritten by autodoc
+ * are refreshed, see FileSnapshot.
+ *
+ * Task may also be created for an explicit list of files (for example,
+ * files changed in VCS or selected in the project view). Such files are
+ * processed in a single batch (or in a few parallel ones if there are
+ * many of them), each file is locked while the task is running and
+ * per-file results are printed to the console.
+ */
 public class
 AutodocProjectTask extends AutodocBaseCommandTask {
     private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.task.project");
+    // Min number of explicit files per autodoc process.
+    private static final int MIN_FILES_PER_JOB = 50;
+    // Max time to wait for shards after cancel, processes are
+    // already destroyed by then.
+    private static final long SHARD_STOP_MS = 10 * 1000;
+    @NotNull private final AutodocFileIndex m_index;
+    @NotNull private String m_bundleVersion = "";
+    @NotNull private final Map<VirtualFile, String> m_roots = new HashMap<>();
+    @Nullable private final List<VirtualFile> m_files;
+    @NotNull private final AutodocConsoleStream m_output;
+    @NotNull private final List<Object> m_keys;
+    @NotNull private final Set<VirtualFile> m_changed = ContainerUtil.newConcurrentSet();
+    @NotNull private final Queue<String> m_failedChunks = new ConcurrentLinkedQueue<>();
+    @NotNull private final AtomicInteger m_chunkCount = new AtomicInteger();
 
     /**
      * Construct task.
@@ -43,78 +90,390 @@ AutodocProjectTask extends AutodocBaseCommandTask {
      * @param project the project for which the task is created.
      */
     public AutodocProjectTask(@NotNull Project project) {
+        this(project, null);
+    }
+
+    /**
+     * Construct task for the given files.
+     *
+     * @param project the project for which the task is created.
+     * @param files files to process, if null then all project files
+     *              are processed.
+     */
+    public AutodocProjectTask(@NotNull Project project,
+                              @Nullable List<VirtualFile> files) {
         super(project);
+        m_index = AutodocFileIndex.getInstance(project);
+        m_files = files == null ? null : new ArrayList<>(files);
+        m_output = new AutodocConsoleStream(project);
+
+        m_keys = new ArrayList<>();
+        m_keys.add(project);
+        if (m_files != null)
+            m_keys.addAll(m_files);
     }
 
+    // Project is locked, explicit files are locked too,
+    // so single file runs wait for them.
+    @NotNull
     @Override
-    protected void onBeforeRun() {
-        // NOTE: Lock state is checked in AutodocCurrentProject action.
-        PluginUtils.setLockState(myProject, true);
+    public List<Object> keys() {
+        return m_keys;
     }
 
     @Override
-    protected void onAfterRun() {
-        // NOTE: Lock state is checked in AutodocCurrentProject action.
-        PluginUtils.setLockState(myProject, false);
+    public boolean isSameRequest(@NotNull AutodocBaseCommandTask other) {
+        return other instanceof AutodocProjectTask
+            && Objects.equals(((AutodocProjectTask)other).m_files, m_files);
     }
 
     @Override
-    protected void execute(@NotNull final ProgressIndicator indicator) {
-        String path = myProject.getBasePath();
-        if (path == null) {
-            showError("Can't detect project's path.");
+    protected void onRunTimedOut(@NotNull String message) {
+        m_output.printInfo("\n" + message + "\n");
+    }
+
+    @Override
+    protected void onAfterRun() {
+        m_index.save();
+        m_output.finish();
+        refreshChanged();
+    }
+
+    // Number of parallel autodoc processes for the given files.
+    // Small sets are processed by a single process.
+    private static int jobsFor(int count) {
+        int jobs = (count + MIN_FILES_PER_JOB - 1) / MIN_FILES_PER_JOB;
+        return Math.max(1, Math.min(parallelJobs(), jobs));
+    }
+
+    // Time budget of a chunk: per file budget for each file,
+    // but not more than left in the run budget.
+    private long chunkBudgetMs(int files) {
+        long budget = AutodocWatchdog.fileBudgetMs() * files;
+        long remaining = remainingBudgetMs();
+        if (remaining < 0)
+            return budget;
+        // Zero timeout disables the watchdog, so keep at least 1 ms.
+        remaining = Math.max(1, remaining);
+        return budget <= 0 ? remaining : Math.min(budget, remaining);
+    }
+
+    // Print results of explicit files run.
+    // Autodoc reports a single status for the whole chunk, so files of
+    // a failed chunk are not known to be broken, they are just not verified.
+    private void printSummary() {
+        m_output.printInfo(String.format(
+            "\nProcessed files: %d, changed: %d, failed chunks: %d.\n",
+            m_files.size(), m_changed.size(), m_failedChunks.size()));
+        for (String message : m_failedChunks)
+            m_output.printInfo(message);
+    }
+
+    // Remember failed chunk to report it in the summary.
+    private void addFailedChunk(int number, @NotNull String reason,
+                                @NotNull List<VirtualFile> chunk) {
+        StringBuilder message = new StringBuilder();
+        message.append(String.format(
+            "Chunk %d failed: %s, files not verified:\n", number, reason));
+        for (VirtualFile file : chunk)
+            message.append("    ").append(file.getPath()).append("\n");
+        m_failedChunks.add(message.toString());
+    }
+
+    // Refresh files rewritten by autodoc.
+    private void refreshChanged() {
+        if (m_changed.isEmpty())
             return;
-        }
 
-        ExternalCommand cmd = createCommand();
-        cmd.setTitle("Autodoc " + project().getName());
-        cmd.setWorkingDirectory(path);
-        cmd.addParameters("--fix");
-        cmd.addParameters(path);
+        LOG.debug(String.format("Refresh %d changed files.", m_changed.size()));
+        VirtualFile[] files = m_changed.toArray(new VirtualFile[m_changed.size()]);
+        m_changed.clear();
+
+        final RunTimings timings = timings();
+        final long start = timings.start();
+        VfsUtil.markDirty(false, false, files);
+        LocalFileSystem.getInstance().refreshFiles(
+            Arrays.asList(files), true, false, new Runnable() {
+                @Override
+                public void run() {
+                    timings.finish(RunTimings.Phase.VFS_REFRESH, start);
+                }
+            });
+    }
+
+    // Process only files changed since the last run.
+    // Can be disabled with -Dludditelabs.autodoc.incremental=false.
+    private static boolean isIncremental() {
+        return !"false".equals(
+            System.getProperty("ludditelabs.autodoc.incremental"));
+    }
+
+    // Number of parallel autodoc processes for the project run.
+    private static int parallelJobs() {
+        return Math.max(1, Integer.getInteger("ludditelabs.autodoc.jobs",
+            Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Collect files to process.
+     *
+     * Files are taken from the project content roots, excluded folders
+     * and ignored files are skipped. If the task is created for explicit
+     * files then they are returned.
+     *
+     * @return list of files.
+     */
+    @NotNull
+    protected List<VirtualFile> collectFiles() {
+        if (m_files != null)
+            return m_files;
+
+        return ApplicationManager.getApplication().runReadAction(
+            new Computable<List<VirtualFile>>() {
+                @Override
+                public List<VirtualFile> compute() {
+                    return PluginUtils.getPythonFiles(project());
+                }
+            });
+    }
 
-        cmd.addListener(new ExternalCommandListener() {
+    // Get content root of each file, it will be a working directory
+    // for the autodoc process.
+    private void collectRoots(@NotNull final List<VirtualFile> files) {
+        ApplicationManager.getApplication().runReadAction(new Runnable() {
             @Override
-            public void startNotified(ProcessEvent event) {
-                setCurrentHandler(event.getProcessHandler());
+            public void run() {
+                for (VirtualFile file : files)
+                    m_roots.put(file, PluginUtils.getRootPath(project(), file));
             }
+        });
+    }
 
-            @Override
-            public void consume(ExternalCommandResult result) {
-                if (indicator.isCanceled() || isCanceled()) {
-                    AutodocToolWindow.clearConsole(project());
-                    return;
-                }
+    // Drop files which are not changed since the last run.
+    @NotNull
+    private List<VirtualFile> filterOutdated(@NotNull List<VirtualFile> files,
+                                             @NotNull ProgressIndicator indicator) {
+        indicator.setText("Autodoc: checking changed files...");
+        List<VirtualFile> result = new ArrayList<>();
+        for (VirtualFile file : files) {
+            if (indicator.isCanceled())
+                break;
+            if (m_index.isOutdated(file, m_bundleVersion))
+                result.add(file);
+        }
+        LOG.debug(String.format("%d of %d files are changed.",
+            result.size(), files.size()));
+        return result;
+    }
 
-                String output = result.allContent().trim();
+    // Process chunks of the shard one by one.
+    // Files of different content roots are processed separately.
+    // Returns true if all chunks are processed successfully.
+    private boolean runShard(@NotNull List<VirtualFile> shard,
+                             @NotNull ProgressIndicator indicator,
+                             @NotNull AtomicInteger done,
+                             int total) throws Exception {
+        boolean success = true;
 
-                // NOTE: we show output even on errors.
-                if (!output.isEmpty()) {
-                    PluginUtils.showOutput(project(), output);
-                }
+        Map<String, List<VirtualFile>> groups = new LinkedHashMap<>();
+        for (VirtualFile file : shard) {
+            String root = m_roots.get(file);
+            List<VirtualFile> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(root, group);
+            }
+            group.add(file);
+        }
 
-                if (!result.isSuccess()) {
-                    showError("Finished with errors.");
-                    return;
+        for (Map.Entry<String, List<VirtualFile>> group : groups.entrySet()) {
+            for (List<VirtualFile> chunk : FileShards.chunks(group.getValue())) {
+                if (indicator.isCanceled())
+                    break;
+
+                int number = m_chunkCount.incrementAndGet();
+                AutodocRequest request = new AutodocRequest();
+                request.setTitle("Autodoc " + project().getName());
+                request.setWorkingDirectory(group.getKey());
+                request.setOutputListener(m_output, true);
+                request.setTimeout(chunkBudgetMs(chunk.size()));
+                request.addParameters("--fix");
+                for (VirtualFile file : chunk)
+                    request.addParameters(file.getPath());
+
+                FileSnapshot snapshot = FileSnapshot.take(chunk);
+                AutodocResponse response;
+                try {
+                    response = executeRequest(request);
                 }
+                catch (IOException e) {
+                    if (!request.isTimedOut())
+                        throw e;
 
-                if (output.isEmpty()) {
-                    showInfoOnEmptyOutput();
+                    // Skip stuck chunk and continue with the rest.
+                    m_output.onOutput(e.getMessage() + "\n", true);
+                    for (VirtualFile file : chunk)
+                        m_index.update(file, m_bundleVersion, false);
+                    addFailedChunk(number, "timed out", chunk);
+                    success = false;
+                    indicator.setFraction(
+                        (double)done.addAndGet(chunk.size()) / total);
+                    continue;
+                }
+                finally {
+                    // Canceled process may rewrite some files too.
+                    m_changed.addAll(snapshot.changedFiles());
                 }
+                for (VirtualFile file : chunk)
+                    m_index.update(file, m_bundleVersion, response.isSuccess());
+                if (!response.isSuccess())
+                    addFailedChunk(number, "finished with errors", chunk);
+                success &= response.isSuccess();
 
-                VirtualFile root_path = project().getBaseDir();
-                VfsUtil.markDirtyAndRefresh(true, true, true, root_path);
+                indicator.setFraction(
+                    (double)done.addAndGet(chunk.size()) / total);
             }
-        });
+        }
+        return success;
+    }
 
+    // Wait until shard threads are stopped, so they don't update
+    // the index and changed files after onAfterRun() saved them.
+    private static void awaitShards(@NotNull ExecutorService executor) {
+        boolean interrupted = Thread.interrupted();
         try {
-            indicator.setText(cmd.title() + "...");
-            LOG.debug(cmd.commandLineString());
-            cmd.execute();
+            if (!executor.awaitTermination(SHARD_STOP_MS, TimeUnit.MILLISECONDS))
+                LOG.warn("Autodoc shards are not stopped in time.");
+        }
+        catch (InterruptedException e) {
+            interrupted = true;
+        }
+        finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    // Run shards in parallel and wait for them.
+    // Output of the shards is streamed to the console.
+    private void executeParallel(@NotNull final ProgressIndicator indicator,
+                                 @NotNull List<VirtualFile> files,
+                                 int jobs) {
+        final List<List<VirtualFile>> shards = FileShards.split(files, jobs);
+        final int total = files.size();
+        final AtomicInteger done = new AtomicInteger();
+
+        LOG.debug(String.format("Process %d files in %d shards.",
+            total, shards.size()));
+
+        indicator.setIndeterminate(false);
+        indicator.setFraction(0);
+        indicator.setText("Autodoc " + project().getName() + "...");
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+            shards.size(), ConcurrencyUtil.newNamedThreadFactory("Autodoc shard"));
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (final List<VirtualFile> shard : shards) {
+            futures.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return runShard(shard, indicator, done, total);
+                }
+            }));
+        }
+
+        boolean success = true;
+
+        try {
+            for (Future<Boolean> future : futures) {
+                Boolean result = null;
+                while (result == null) {
+                    // Tear down all shards as soon as user cancels the task.
+                    if (indicator.isCanceled()) {
+                        cancelRequests();
+                        return;
+                    }
+                    try {
+                        result = future.get(100, TimeUnit.MILLISECONDS);
+                    }
+                    catch (TimeoutException e) {
+                        // Check cancellation and wait again.
+                    }
+                    catch (java.util.concurrent.ExecutionException e) {
+                        LOG.debug(e.getCause());
+                        m_output.onOutput(
+                            e.getCause().getLocalizedMessage() + "\n", true);
+                        result = false;
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        cancelRequests();
+                        return;
+                    }
+                }
+                success &= result;
+            }
         }
-        catch (ExecutionException e) {
-            ExecutionHelper.showErrors(
-                project(), Collections.singletonList(e),
-                cmd.title(), null);
+        finally {
+            executor.shutdownNow();
+            awaitShards(executor);
         }
+
+        dispatchResponse(indicator,
+            AutodocResponse.create(success ? 0 : 1, "", ""));
+    }
+
+    @Override
+    protected void execute(@NotNull final ProgressIndicator indicator) {
+        indicator.setText("Autodoc: collecting files...");
+        m_bundleVersion = PluginBundleManager.getInstance().getBundleVersion();
+        List<VirtualFile> files = collectFiles();
+        if (files.isEmpty()) {
+            PluginUtils.showNotification(project(), "Autodoc",
+                "No python files found.", NotificationType.INFORMATION);
+            return;
+        }
+
+        // Skip files which are not changed since the last run.
+        // Explicit files are always processed.
+        if (m_files == null && isIncremental())
+            files = filterOutdated(files, indicator);
+
+        if (indicator.isCanceled())
+            return;
+
+        if (files.isEmpty()) {
+            PluginUtils.showNotification(project(), "Autodoc",
+                "No changed files since the last run.",
+                NotificationType.INFORMATION);
+            return;
+        }
+
+        collectRoots(files);
+        m_output.start();
+
+        // Split files between several autodoc processes.
+        // Explicit files are usually few, so they are split only
+        // if there are many of them.
+        executeParallel(indicator, files,
+            m_files == null ? parallelJobs() : jobsFor(files.size()));
+
+        if (m_files != null && !indicator.isCanceled())
+            printSummary();
+    }
+
+    @Override
+    protected void processResponse(@NotNull AutodocResponse response) {
+        // NOTE: output is already streamed to the console.
+        if (!response.isSuccess()) {
+            showError("Finished with errors.");
+            return;
+        }
+
+        if (!m_output.hasOutput()) {
+            showInfoOnEmptyOutput();
+        }
+
+        // NOTE: changed files are refreshed in onAfterRun().
     }
 }
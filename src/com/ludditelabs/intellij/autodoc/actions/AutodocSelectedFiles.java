@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.ludditelabs.intellij.autodoc.PluginProjectComponent;
+import com.ludditelabs.intellij.autodoc.PluginUtils;
+import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
+
+import java.util.List;
+
+/**
+ * Action to run autodoc on files and directories selected
+ * in the project view.
+ *
+ * Directories are processed recursively. All found python files are
+ * processed by a single task, see AutodocProjectTask.
+ */
+public class AutodocSelectedFiles extends AnAction {
+    @Override
+    public void actionPerformed(AnActionEvent e) {
+        final Project project = e.getProject();
+        final VirtualFile[] selection = e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
+        if (project == null || selection == null || selection.length == 0)
+            return;
+
+        PluginProjectComponent component =
+            project.getComponent(PluginProjectComponent.class);
+
+        // This must not happen because we registered this component.
+        if (component == null)
+            return;
+
+        // If state is true then the project is already processing.
+        if (AutodocTaskRegistry.getInstance().isBusy(project))
+            return;
+
+        List<VirtualFile> files = ApplicationManager.getApplication().runReadAction(
+            new Computable<List<VirtualFile>>() {
+                @Override
+                public List<VirtualFile> compute() {
+                    return PluginUtils.getPythonFiles(project, selection);
+                }
+            });
+
+        if (files.isEmpty()) {
+            PluginUtils.showNotification(project, "Autodoc",
+                "No python files selected.", NotificationType.INFORMATION);
+            return;
+        }
+
+        AutodocFileScheduler.saveAllDocuments();
+        component.runAutodoc(files);
+    }
+
+    @Override
+    public void update(AnActionEvent e) {
+        final PluginBundleManager manager = PluginBundleManager.getInstance();
+        if (!manager.isPlatformSupported()) {
+            e.getPresentation().setEnabled(false);
+            return;
+        }
+
+        final Project project = e.getProject();
+        final VirtualFile[] selection = e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
+        boolean is_locked  = project == null || AutodocTaskRegistry.getInstance().isBusy(project);
+        e.getPresentation().setEnabled(
+            !is_locked && selection != null && selection.length > 0);
+    }
+}
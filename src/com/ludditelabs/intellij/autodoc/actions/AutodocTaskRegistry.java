@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of running autodoc tasks.
+ *
+ * Each task holds a set of keys (files, project), see
+ * AutodocBaseCommandTask.keys(). Only one task may hold a key at a time:
+ *
+ * - if the same request is already running then the new one is merged
+ *   with it (single-flight);
+ * - otherwise the new request waits until the keys are released; only
+ *   the latest waiting request is kept for a key.
+ *
+ * Lookups are lock-free and may be done from any thread,
+ * for example, from actions' update().
+ */
+public class AutodocTaskRegistry {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.registry");
+
+    @NotNull private final ConcurrentMap<Object, AutodocBaseCommandTask> m_running =
+        new ConcurrentHashMap<>();
+    // Guarded by this.
+    @NotNull private final Map<Object, AutodocBaseCommandTask> m_pending = new HashMap<>();
+
+    public static AutodocTaskRegistry getInstance() {
+        return ServiceManager.getService(AutodocTaskRegistry.class);
+    }
+
+    /** Return true if the item is processing. */
+    public boolean isBusy(@NotNull Object key) {
+        return m_running.containsKey(key);
+    }
+
+    /** Get task which processes the item or null. */
+    @Nullable
+    public AutodocBaseCommandTask get(@NotNull Object key) {
+        return m_running.get(key);
+    }
+
+    /**
+     * Start the task or queue it if its items are processing.
+     *
+     * NOTE: must be called in AWT thread.
+     *
+     * @param task task to run.
+     * @return true if the task is started or merged with the running one,
+     *         false if it's queued.
+     */
+    public boolean submit(@NotNull AutodocBaseCommandTask task) {
+        List<Object> keys = task.keys();
+        if (keys.isEmpty()) {
+            ProgressManager.getInstance().run(task);
+            return true;
+        }
+
+        synchronized (this) {
+            Object primary = keys.get(0);
+            AutodocBaseCommandTask running = m_running.get(primary);
+            if (running != null && !running.isCancelRequested()
+                && running.isSameRequest(task)) {
+                LOG.debug("Merge with running task: " + primary);
+                m_pending.remove(primary);
+                return true;
+            }
+
+            for (Object key : keys) {
+                if (m_running.containsKey(key)) {
+                    LOG.debug("Queue task: " + primary);
+                    m_pending.put(primary, task);
+                    return false;
+                }
+            }
+
+            for (Object key : keys)
+                m_running.put(key, task);
+        }
+
+        ProgressManager.getInstance().run(task);
+        return true;
+    }
+
+    /**
+     * Release task's items and start waiting tasks.
+     *
+     * It's called by the task when it's finished.
+     *
+     * @param task finished task.
+     */
+    public void release(@NotNull AutodocBaseCommandTask task) {
+        final List<AutodocBaseCommandTask> next = new ArrayList<>();
+        synchronized (this) {
+            for (Object key : task.keys()) {
+                if (m_running.remove(key, task)) {
+                    AutodocBaseCommandTask pending = m_pending.remove(key);
+                    if (pending != null)
+                        next.add(pending);
+                }
+            }
+
+            // Pending task may wait for a key which is not its primary one.
+            Iterator<AutodocBaseCommandTask> it = m_pending.values().iterator();
+            while (it.hasNext()) {
+                AutodocBaseCommandTask pending = it.next();
+                if (!Collections.disjoint(pending.keys(), task.keys())) {
+                    next.add(pending);
+                    it.remove();
+                }
+            }
+        }
+
+        if (next.isEmpty())
+            return;
+
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                for (AutodocBaseCommandTask pending : next) {
+                    if (!pending.project().isDisposed())
+                        submit(pending);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.util.DocumentUtil;
+import com.intellij.util.diff.Diff;
+import com.intellij.util.diff.FilesTooBigForDiffException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of changed line ranges between two texts.
+ *
+ * Autodoc changes only docstrings, so instead of replacing the whole
+ * document we compute changed hunks in a background thread and apply
+ * only them. This keeps folding, markers and caret position and lets
+ * PSI reparse only changed parts.
+ *
+ * Patch is bound to the document modification stamp, it can't be applied
+ * if the document is changed after the patch creation.
+ */
+public class DocumentPatch {
+    private static final Logger LOG = Logger.getInstance(DocumentPatch.class);
+
+    // Number of hunks to apply in bulk mode. Each edit fires document
+    // events, in bulk mode editors process them at once at the end.
+    private static final int BULK_HUNKS = 100;
+
+    private static class Hunk {
+        final int start;
+        final int end;
+        @NotNull final String text;
+
+        Hunk(int start, int end, @NotNull String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+
+    @NotNull private final List<Hunk> m_hunks;
+    @Nullable private final String m_text;
+    private final long m_stamp;
+
+    private DocumentPatch(@NotNull List<Hunk> hunks, @Nullable String text,
+                          long stamp) {
+        m_hunks = hunks;
+        m_text = text;
+        m_stamp = stamp;
+    }
+
+    /**
+     * Convert CRLF line separators to LF ones.
+     *
+     * IDE documents accept only LF.
+     *
+     * @param text text to convert.
+     * @return converted text.
+     */
+    @NotNull
+    public static String toLf(@NotNull String text) {
+        return text.replace("\r\n", "\n");
+    }
+
+    // Split text to lines, each line keeps its '\n' terminator.
+    @NotNull
+    private static String[] splitLines(@NotNull String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end == -1 ? text.length() : end + 1;
+            lines.add(text.substring(start, end));
+            start = end;
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    // Offsets of the lines starts, last item is the text length.
+    @NotNull
+    private static int[] lineOffsets(@NotNull String[] lines) {
+        int[] offsets = new int[lines.length + 1];
+        for (int i = 0; i < lines.length; i++)
+            offsets[i + 1] = offsets[i] + lines[i].length();
+        return offsets;
+    }
+
+    /**
+     * Create patch to transform document text to the given one.
+     *
+     * NOTE: this method may take time on big documents,
+     * so don't call it in the AWT thread.
+     *
+     * @param before current document text.
+     * @param after new document text.
+     * @param stamp document modification stamp of the before text.
+     * @return document patch.
+     */
+    @NotNull
+    public static DocumentPatch create(@NotNull String before,
+                                       @NotNull String after,
+                                       long stamp) {
+        String[] old_lines = splitLines(before);
+        String[] new_lines = splitLines(after);
+
+        Diff.Change change;
+        try {
+            change = Diff.buildChanges(old_lines, new_lines);
+        }
+        catch (FilesTooBigForDiffException e) {
+            LOG.debug(e);
+            return new DocumentPatch(new ArrayList<Hunk>(), after, stamp);
+        }
+
+        int[] offsets = lineOffsets(old_lines);
+        List<Hunk> hunks = new ArrayList<>();
+        for (; change != null; change = change.link) {
+            StringBuilder text = new StringBuilder();
+            for (int i = change.line1; i < change.line1 + change.inserted; i++)
+                text.append(new_lines[i]);
+
+            hunks.add(new Hunk(offsets[change.line0],
+                offsets[change.line0 + change.deleted], text.toString()));
+        }
+        return new DocumentPatch(hunks, null, stamp);
+    }
+
+    /** Return true if the patch doesn't change anything. */
+    public boolean isEmpty() {
+        return m_text == null && m_hunks.isEmpty();
+    }
+
+    // Return true if the patch replaces the whole text, used by tests.
+    boolean isFullReplace() {
+        return m_text != null;
+    }
+
+    /** Return true if the patch can be applied to the given document. */
+    public boolean isApplicable(@NotNull Document document) {
+        return document.getModificationStamp() == m_stamp;
+    }
+
+    /**
+     * Apply patch to the document.
+     *
+     * NOTE: must be called inside write action.
+     *
+     * @param document document to modify.
+     */
+    public void apply(@NotNull final Document document) {
+        if (m_text != null) {
+            document.setText(m_text);
+            return;
+        }
+
+        DocumentUtil.executeInBulk(document, m_hunks.size() >= BULK_HUNKS,
+            new Runnable() {
+                @Override
+                public void run() {
+                    // Apply from the end to keep offsets of previous hunks valid.
+                    for (int i = m_hunks.size() - 1; i >= 0; i--) {
+                        Hunk hunk = m_hunks.get(i);
+                        document.replaceString(hunk.start, hunk.end, hunk.text);
+                    }
+                }
+            });
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Helpers to split files for parallel autodoc runs.
+ */
+public class FileShards {
+    // Limits of a single autodoc invocation.
+    // Windows command line can't be longer than 32k chars.
+    private static final int MAX_FILES_PER_RUN = 200;
+    private static final int MAX_CHARS_PER_RUN = 24 * 1024;
+
+    private static class Shard implements Comparable<Shard> {
+        final List<VirtualFile> files = new ArrayList<>();
+        long size = 0;
+
+        @Override
+        public int compareTo(@NotNull Shard other) {
+            return Long.compare(size, other.size);
+        }
+    }
+
+    /**
+     * Split files to shards with similar total size.
+     *
+     * Biggest files are placed first, each file goes to the
+     * currently smallest shard.
+     *
+     * @param files files to split.
+     * @param count max number of shards.
+     * @return list of non-empty shards.
+     */
+    @NotNull
+    public static List<List<VirtualFile>> split(@NotNull Collection<VirtualFile> files,
+                                                int count) {
+        List<VirtualFile> sorted = new ArrayList<>(files);
+        Collections.sort(sorted, new Comparator<VirtualFile>() {
+            @Override
+            public int compare(VirtualFile a, VirtualFile b) {
+                return Long.compare(b.getLength(), a.getLength());
+            }
+        });
+
+        PriorityQueue<Shard> queue = new PriorityQueue<>();
+        for (int i = 0; i < Math.max(1, count); i++)
+            queue.add(new Shard());
+
+        for (VirtualFile file : sorted) {
+            Shard shard = queue.poll();
+            shard.files.add(file);
+            shard.size += file.getLength();
+            queue.add(shard);
+        }
+
+        List<List<VirtualFile>> result = new ArrayList<>();
+        for (Shard shard : queue) {
+            if (!shard.files.isEmpty())
+                result.add(shard.files);
+        }
+        return result;
+    }
+
+    /**
+     * Split files to chunks which fit into a single command line.
+     *
+     * @param files files to split.
+     * @return list of chunks.
+     */
+    @NotNull
+    public static List<List<VirtualFile>> chunks(@NotNull List<VirtualFile> files) {
+        List<List<VirtualFile>> result = new ArrayList<>();
+        List<VirtualFile> chunk = new ArrayList<>();
+        int chars = 0;
+
+        for (VirtualFile file : files) {
+            int len = file.getPath().length() + 1;
+            if (!chunk.isEmpty() && (chunk.size() >= MAX_FILES_PER_RUN
+                || chars + len > MAX_CHARS_PER_RUN)) {
+                result.add(chunk);
+                chunk = new ArrayList<>();
+                chars = 0;
+            }
+            chunk.add(file);
+            chars += len;
+        }
+
+        if (!chunk.isEmpty())
+            result.add(chunk);
+        return result;
+    }
+}
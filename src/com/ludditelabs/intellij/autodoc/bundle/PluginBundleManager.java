@@ -16,18 +16,26 @@
 
 package com.ludditelabs.intellij.autodoc.bundle;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import com.intellij.notification.*;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
 import com.ludditelabs.intellij.autodoc.config.PluginSettings;
 import com.ludditelabs.intellij.common.Utils;
 import com.ludditelabs.intellij.common.bundle.BundleManager;
+import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.io.IOException;
 
 /**
  * Bundle manager service for the Autodoc plugin.
  */
 public class PluginBundleManager extends BundleManager {
+    private static final Logger LOG = Logger.getInstance(PluginBundleManager.class);
     // See <id> value in the resources/META-INF/plugin.xml file.
     private static String ID = "com.ludditelabs.autodocintellij.plugin";
     private static final NotificationGroup m_errGroup = new NotificationGroup(
@@ -36,6 +44,9 @@ public class PluginBundleManager extends BundleManager {
         true
     );
 
+    private long m_versionTimestamp = -1;
+    @NotNull private String m_version = "";
+
     /**
      * Construct autodoc platform bundle manager.
      */
@@ -73,4 +84,36 @@ public class PluginBundleManager extends BundleManager {
     public static PluginBundleManager getInstance() {
         return ServiceManager.getService(PluginBundleManager.class);
     }
+
+    /**
+     * Get version of the installed platform bundle.
+     *
+     * Version is read from the bundle's metadata.json and is re-read
+     * only if the file is changed.
+     *
+     * @return bundle version or empty string if bundle is not installed.
+     */
+    @NotNull
+    public synchronized String getBundleVersion() {
+        File file = new File(
+            PluginSettings.getPluginPath("autodoc-pkg", "metadata.json"));
+        long timestamp = file.lastModified();
+        if (timestamp != m_versionTimestamp) {
+            m_versionTimestamp = timestamp;
+            m_version = "";
+            if (timestamp != 0) {
+                try {
+                    JsonObject meta = new JsonParser().parse(
+                        FileUtil.loadFile(file, "UTF-8")).getAsJsonObject();
+                    JsonElement version = meta.get("version");
+                    if (version != null)
+                        m_version = version.getAsString();
+                }
+                catch (IOException | RuntimeException e) {
+                    LOG.debug(e);
+                }
+            }
+        }
+        return m_version;
+    }
 }
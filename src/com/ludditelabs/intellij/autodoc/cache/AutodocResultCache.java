@@ -0,0 +1,393 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.cache;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of autodoc results for single files.
+ *
+ * Result is addressed by hash of the source text, platform bundle
+ * version, tool options and project autodoc configuration, so unchanged
+ * sources (repeated runs, undo/redo) are processed without starting
+ * the tool. Configuration files are looked up in the working directory,
+ * their names may be set with
+ * <pre>-Dludditelabs.autodoc.cache.configs=NAME,NAME</pre>.
+ *
+ * There are two tiers:
+ *
+ * - in-memory LRU (<pre>-Dludditelabs.autodoc.cache.memory=N</pre> entries);
+ * - on-disk cache in the IDE system directory, its size is limited by
+ *   <pre>-Dludditelabs.autodoc.cache.disk=MB</pre>, least recently used
+ *   entries are removed first.
+ *
+ * Zero sizes disable corresponding tiers. Hit and miss counters are
+ * logged to the ludditelabs.autodoc.cache debug category.
+ */
+public class AutodocResultCache {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.cache");
+    private static final int FORMAT_VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String DEFAULT_CONFIGS = "autodoc.cfg,.autodoc.cfg,setup.cfg,tox.ini";
+
+    /** Cached result. */
+    public static class Entry {
+        @NotNull private final String m_content;
+        @NotNull private final String m_output;
+
+        public Entry(@NotNull String content, @NotNull String output) {
+            m_content = content;
+            m_output = output;
+        }
+
+        /** Fixed source text. */
+        @NotNull
+        public String content() {
+            return m_content;
+        }
+
+        /** Tool report. */
+        @NotNull
+        public String output() {
+            return m_output;
+        }
+
+        int size() {
+            return m_content.length() + m_output.length();
+        }
+    }
+
+    private final int m_memorySize;
+    private final long m_diskSize;
+    @NotNull private final File m_dir;
+    @NotNull private final Map<String, Entry> m_memory;
+    private long m_diskUsage = -1;
+
+    @NotNull private final AtomicLong m_memoryHits = new AtomicLong();
+    @NotNull private final AtomicLong m_diskHits = new AtomicLong();
+    @NotNull private final AtomicLong m_misses = new AtomicLong();
+
+    public AutodocResultCache() {
+        m_memorySize = Integer.getInteger("ludditelabs.autodoc.cache.memory", 50);
+        m_diskSize = Integer.getInteger("ludditelabs.autodoc.cache.disk", 50) * 1024L * 1024L;
+        m_dir = Paths.get(PathManager.getSystemPath(),
+            "ludditelabs.autodoc", "cache").toFile();
+        m_memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > m_memorySize;
+            }
+        };
+    }
+
+    public static AutodocResultCache getInstance() {
+        return ServiceManager.getService(AutodocResultCache.class);
+    }
+
+    /**
+     * Build cache key.
+     *
+     * @param text source text.
+     * @param bundleVersion platform bundle version.
+     * @param options tool options which affect the result.
+     * @return cache key.
+     */
+    @NotNull
+    public static String key(@NotNull String text, @NotNull String bundleVersion,
+                             @NotNull List<String> options) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(bundleVersion.getBytes(UTF8));
+            for (String option : options) {
+                md.update((byte)0);
+                md.update(option.getBytes(UTF8));
+            }
+            md.update((byte)0);
+            md.update(text.getBytes(UTF8));
+            return toHex(md.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Build hash of the autodoc configuration files.
+     *
+     * It's passed to key() as an option, so changing the configuration
+     * invalidates cached results. Missing files are skipped.
+     *
+     * NOTE: reads from disk, don't call it in AWT thread.
+     *
+     * @param workingDirectory directory where autodoc runs.
+     * @return configuration hash.
+     */
+    @NotNull
+    public static String configHash(@Nullable String workingDirectory) {
+        if (workingDirectory == null)
+            return "";
+
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            String names = System.getProperty(
+                "ludditelabs.autodoc.cache.configs", DEFAULT_CONFIGS);
+            for (String name : names.split(",")) {
+                name = name.trim();
+                File file = new File(workingDirectory, name);
+                if (name.isEmpty() || !file.isFile())
+                    continue;
+                md.update(name.getBytes(UTF8));
+                md.update((byte)0);
+                try {
+                    md.update(FileUtil.loadFileBytes(file));
+                }
+                catch (IOException e) {
+                    // Unreadable config gives a unique hash,
+                    // so the result is not taken from the cache.
+                    LOG.debug(e);
+                    md.update(String.valueOf(System.nanoTime()).getBytes(UTF8));
+                }
+                md.update((byte)0);
+            }
+            return toHex(md.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @NotNull
+    private static String toHex(@NotNull byte[] data) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : data)
+            sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+
+    /**
+     * Get cached result.
+     *
+     * NOTE: may read from disk, don't call it in AWT thread.
+     *
+     * @param key cache key.
+     * @return cached result or null.
+     */
+    @Nullable
+    public Entry get(@NotNull String key) {
+        Entry entry;
+        synchronized (m_memory) {
+            entry = m_memory.get(key);
+        }
+        if (entry != null) {
+            m_memoryHits.incrementAndGet();
+            logStats();
+            return entry;
+        }
+
+        entry = readEntry(key);
+        if (entry != null) {
+            m_diskHits.incrementAndGet();
+            putMemory(key, entry);
+        }
+        else {
+            m_misses.incrementAndGet();
+        }
+        logStats();
+        return entry;
+    }
+
+    /**
+     * Put result to the cache.
+     *
+     * NOTE: may write to disk, don't call it in AWT thread.
+     *
+     * @param key cache key.
+     * @param entry result to cache.
+     */
+    public void put(@NotNull String key, @NotNull Entry entry) {
+        putMemory(key, entry);
+        writeEntry(key, entry);
+    }
+
+    /** Remove all cached results. */
+    public synchronized void clear() {
+        synchronized (m_memory) {
+            m_memory.clear();
+        }
+        FileUtil.delete(m_dir);
+        m_diskUsage = 0;
+    }
+
+    public long memoryHits() {
+        return m_memoryHits.get();
+    }
+
+    public long diskHits() {
+        return m_diskHits.get();
+    }
+
+    public long misses() {
+        return m_misses.get();
+    }
+
+    private void logStats() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("memory hits: %d, disk hits: %d, misses: %d",
+                m_memoryHits.get(), m_diskHits.get(), m_misses.get()));
+        }
+    }
+
+    private void putMemory(@NotNull String key, @NotNull Entry entry) {
+        if (m_memorySize <= 0)
+            return;
+        synchronized (m_memory) {
+            m_memory.put(key, entry);
+        }
+    }
+
+    @NotNull
+    private File entryFile(@NotNull String key) {
+        return new File(m_dir, key);
+    }
+
+    @Nullable
+    private synchronized Entry readEntry(@NotNull String key) {
+        if (m_diskSize <= 0)
+            return null;
+
+        File file = entryFile(key);
+        if (!file.exists())
+            return null;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION)
+                return null;
+            Entry entry = new Entry(readString(in), readString(in));
+
+            // Mark as recently used.
+            if (!file.setLastModified(System.currentTimeMillis()))
+                LOG.debug("Can't touch " + file.getPath());
+            return entry;
+        }
+        catch (IOException e) {
+            LOG.debug(e);
+            FileUtil.delete(file);
+            return null;
+        }
+    }
+
+    private synchronized void writeEntry(@NotNull String key, @NotNull Entry entry) {
+        if (m_diskSize <= 0)
+            return;
+
+        // Entry is bigger than the whole cache.
+        long size = entry.size() * 3L;
+        if (size > m_diskSize)
+            return;
+
+        File file = entryFile(key);
+        // Entry may replace existing file with the same key.
+        long replaced = file.length();
+        FileUtil.createParentDirs(file);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(file)))) {
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, entry.content());
+            writeString(out, entry.output());
+        }
+        catch (IOException e) {
+            LOG.debug(e);
+            FileUtil.delete(file);
+            if (m_diskUsage >= 0)
+                m_diskUsage -= replaced;
+            return;
+        }
+
+        if (m_diskUsage < 0)
+            m_diskUsage = computeDiskUsage();
+        else
+            m_diskUsage += file.length() - replaced;
+
+        if (m_diskUsage > m_diskSize)
+            shrink();
+    }
+
+    private long computeDiskUsage() {
+        long total = 0;
+        File[] files = m_dir.listFiles();
+        if (files != null) {
+            for (File file : files)
+                total += file.length();
+        }
+        return total;
+    }
+
+    // Remove least recently used entries until the cache takes
+    // 3/4 of the max size.
+    private void shrink() {
+        File[] files = m_dir.listFiles();
+        if (files == null)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+
+        long limit = m_diskSize / 4 * 3;
+        for (File file : files) {
+            if (m_diskUsage <= limit)
+                break;
+            long size = file.length();
+            if (FileUtil.delete(file))
+                m_diskUsage -= size;
+        }
+        LOG.debug(String.format("Cache is shrunk to %d bytes.", m_diskUsage));
+    }
+
+    @NotNull
+    private static String readString(@NotNull DataInputStream in) throws IOException {
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new String(data, UTF8);
+    }
+
+    private static void writeString(@NotNull DataOutputStream out,
+                                    @NotNull String value) throws IOException {
+        byte[] data = value.getBytes(UTF8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+}
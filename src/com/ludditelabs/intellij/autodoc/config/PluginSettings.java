@@ -46,6 +46,7 @@ public class PluginSettings
         public boolean canCollectStatistics = true;
         public boolean showStatisticsNotification = true;
         public long statisticsLastUploadTimestamp = 0;
+        public boolean runOnSave = false;
     }
 
     // See <id> value in the resources/META-INF/plugin.xml file.
@@ -139,8 +140,24 @@ public class PluginSettings
         m_state.statisticsLastUploadTimestamp = value;
     }
 
+    public boolean runOnSave() {
+        return m_state.runOnSave;
+    }
+
+    public void setRunOnSave(boolean state) {
+        m_state.runOnSave = state;
+    }
+
+    /**
+     * Path to the autodoc tool.
+     *
+     * May be overridden with <pre>-Dludditelabs.autodoc.exe=PATH</pre>,
+     * for example, to run benchmarks with a stand-in tool.
+     *
+     * @return path to the tool of the platform bundle or the overridden one.
+     */
     @NotNull
     public String exePath() {
-        return m_exePath;
+        return System.getProperty("ludditelabs.autodoc.exe", m_exePath);
     }
 }
@@ -37,11 +37,15 @@ public class PluginSettingsPanel implements Disposable {
     private JPanel contentPanel;
     private JPanel statisticsPanel;
     private JCheckBox statisticsCheck;
+    private JPanel generalPanel;
+    private JCheckBox runOnSaveCheck;
     private BundleSettingsPanel m_bundlePanel;
 
     public PluginSettingsPanel() {
         setupPlatformBundlePanel();
 
+        generalPanel.setBorder(IdeBorderFactory.createTitledBorder(
+            "General", true));
         statisticsPanel.setBorder(IdeBorderFactory.createTitledBorder(
             "Statistics", true));
     }
@@ -107,16 +111,19 @@ public class PluginSettingsPanel implements Disposable {
         m_bundlePanel.setRemoteMetadata(PluginBundleManager.getInstance().getRemoteBundle().getMetadata());
         setBundle(PluginBundleManager.getInstance().getLocalBundle());
         statisticsCheck.setSelected(settings.canCollectStatistics());
+        runOnSaveCheck.setSelected(settings.runOnSave());
     }
 
     public void saveTo(@NotNull PluginSettings settings) {
         settings.setCanCollectStatistics(statisticsCheck.isSelected());
+        settings.setRunOnSave(runOnSaveCheck.isSelected());
     }
 
     public boolean isModified(@NotNull PluginSettings settings) {
         if (!contentPanel.isVisible())
             return false;
-        return settings.canCollectStatistics() != statisticsCheck.isSelected();
+        return settings.canCollectStatistics() != statisticsCheck.isSelected()
+            || settings.runOnSave() != runOnSaveCheck.isSelected();
     }
 
     @Override
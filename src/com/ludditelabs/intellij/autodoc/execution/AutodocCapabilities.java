@@ -0,0 +1,123 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.CapturingProcessHandler;
+import com.intellij.execution.process.ProcessOutput;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+
+/**
+ * Features supported by the installed autodoc tool.
+ *
+ * Different platform bundle versions support different command line
+ * options, so we parse <pre>autodoc --help</pre> output once per
+ * executable (it's re-parsed if the bundle gets updated).
+ */
+public class AutodocCapabilities {
+    private static final Logger LOG = Logger.getInstance(AutodocCapabilities.class);
+    private static final int HELP_TIMEOUT_MS = 30 * 1000;
+
+    private static AutodocCapabilities m_cached = null;
+
+    @NotNull private final String m_exePath;
+    private final long m_exeTimestamp;
+    @NotNull private final String m_help;
+
+    private AutodocCapabilities(@NotNull String exePath, long timestamp,
+                                @NotNull String help) {
+        m_exePath = exePath;
+        m_exeTimestamp = timestamp;
+        m_help = help;
+    }
+
+    @NotNull
+    private static String loadHelp(@NotNull String exePath) {
+        try {
+            GeneralCommandLine cmd = new GeneralCommandLine(exePath, "--help");
+            CapturingProcessHandler handler = new CapturingProcessHandler(
+                cmd.createProcess(), cmd.getCharset(),
+                cmd.getCommandLineString());
+            ProcessOutput output = handler.runProcess(HELP_TIMEOUT_MS);
+            if (output.getExitCode() == 0)
+                return output.getStdout();
+            LOG.debug("autodoc --help failed: " + output.getStderr());
+        }
+        catch (ExecutionException e) {
+            LOG.debug(e);
+        }
+        return "";
+    }
+
+    /**
+     * Get capabilities of the given autodoc executable.
+     *
+     * NOTE: this method may run external process, so don't call it
+     * in the AWT thread.
+     *
+     * @param exePath path to the autodoc tool.
+     * @return tool capabilities.
+     */
+    @NotNull
+    public static synchronized AutodocCapabilities get(@NotNull String exePath) {
+        long timestamp = new File(exePath).lastModified();
+        if (m_cached == null || !m_cached.m_exePath.equals(exePath)
+            || m_cached.m_exeTimestamp != timestamp) {
+            m_cached = new AutodocCapabilities(
+                exePath, timestamp, loadHelp(exePath));
+        }
+        return m_cached;
+    }
+
+    /** Return true if the tool supports given command line option. */
+    public boolean hasOption(@NotNull String option) {
+        return m_help.contains(option);
+    }
+
+    /**
+     * Return true if the tool can run as a long-lived worker.
+     *
+     * @see AutodocWorker
+     */
+    public boolean supportsWorker() {
+        return hasOption("--worker");
+    }
+
+    /**
+     * Return true if the worker can send output while the request
+     * is processing.
+     *
+     * @see AutodocWorker
+     */
+    public boolean supportsWorkerStreaming() {
+        return hasOption("--worker-stream");
+    }
+
+    /**
+     * Return true if the tool can read source from stdin and write
+     * fixed source to stdout.
+     *
+     * @see AutodocProcess
+     */
+    public boolean supportsStdin() {
+        return hasOption("--stdin");
+    }
+}
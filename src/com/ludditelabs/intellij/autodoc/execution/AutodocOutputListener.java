@@ -0,0 +1,34 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Receives autodoc output while the request is running.
+ *
+ * NOTE: may be called from any thread.
+ */
+public interface AutodocOutputListener {
+    /**
+     * Called when the next portion of output is available.
+     *
+     * @param text output text.
+     * @param stderr true if the text is from stderr.
+     */
+    void onOutput(@NotNull String text, boolean stderr);
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.execution.process.OSProcessHandler;
+import com.intellij.execution.process.ProcessAdapter;
+import com.intellij.execution.process.ProcessEvent;
+import com.intellij.execution.process.ProcessOutputTypes;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Key;
+import com.ludditelabs.intellij.autodoc.timing.RunTimings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * One-shot autodoc process which is able to feed request input to stdin.
+ *
+ * Output is read by the process handler while we write stdin,
+ * so big documents don't deadlock on full pipe buffers.
+ *
+ * Output is passed to the request's output listener as it arrives,
+ * only not streamed output is collected to the response.
+ */
+public class AutodocProcess {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.process");
+
+    // Collects not streamed output and passes other one to the listener.
+    private static class OutputAdapter extends ProcessAdapter {
+        @NotNull private final AutodocRequest m_request;
+        @NotNull private final StringBuilder m_stdout = new StringBuilder();
+        @NotNull private final StringBuilder m_stderr = new StringBuilder();
+
+        OutputAdapter(@NotNull AutodocRequest request) {
+            m_request = request;
+        }
+
+        @Override
+        public void onTextAvailable(ProcessEvent event, Key outputType) {
+            boolean stderr;
+            if (outputType == ProcessOutputTypes.STDOUT)
+                stderr = false;
+            else if (outputType == ProcessOutputTypes.STDERR)
+                stderr = true;
+            else
+                return;
+
+            AutodocOutputListener listener = m_request.outputListener();
+            if (listener != null && m_request.isStreamed(stderr))
+                listener.onOutput(event.getText(), stderr);
+            else if (stderr)
+                m_stderr.append(event.getText());
+            else
+                m_stdout.append(event.getText());
+        }
+    }
+
+    /**
+     * Run autodoc and wait for it to finish.
+     *
+     * @param exePath path to the autodoc tool.
+     * @param request request to execute.
+     * @return execution result.
+     * @throws ExecutionException if process can't be started.
+     */
+    @NotNull
+    public static AutodocResponse execute(@NotNull String exePath,
+                                          @NotNull AutodocRequest request)
+        throws ExecutionException {
+        if (request.isCanceled())
+            throw new ExecutionException("Canceled.");
+
+        RunTimings timings = request.timings();
+        long start = timings.start();
+        GeneralCommandLine cmd = new GeneralCommandLine(exePath);
+        cmd.addParameters(request.parameters());
+        cmd.setCharset(request.charset());
+        if (request.workingDirectory() != null)
+            cmd.setWorkDirectory(request.workingDirectory());
+
+        final OSProcessHandler handler = new OSProcessHandler(
+            cmd.createProcess(), cmd.getCommandLineString(), request.charset());
+        OutputAdapter adapter = new OutputAdapter(request);
+        handler.addProcessListener(adapter);
+
+        request.setCancelHook(new Runnable() {
+            @Override
+            public void run() {
+                ProcessKiller.kill(handler.getProcess());
+            }
+        });
+
+        try {
+            handler.startNotify();
+            timings.finish(RunTimings.Phase.SPAWN, start);
+            start = timings.start();
+
+            String input = request.input();
+            if (input != null) {
+                try (Writer writer = new OutputStreamWriter(
+                    handler.getProcessInput(), request.charset())) {
+                    writer.write(input);
+                }
+                catch (IOException e) {
+                    // Process exited before reading all the input,
+                    // its output will explain the reason.
+                    LOG.debug(e);
+                }
+            }
+
+            // Process exit, then rest of the output is read.
+            try {
+                handler.getProcess().waitFor();
+            }
+            catch (InterruptedException e) {
+                LOG.debug(e);
+                Thread.currentThread().interrupt();
+            }
+            timings.finish(RunTimings.Phase.EXEC, start);
+            start = timings.start();
+            handler.waitFor();
+        }
+        finally {
+            request.setCancelHook(null);
+        }
+
+        Integer code = handler.getExitCode();
+        AutodocResponse response = AutodocResponse.create(code == null ? -1 : code,
+            adapter.m_stdout.toString(), adapter.m_stderr.toString());
+        timings.finish(RunTimings.Phase.OUTPUT, start);
+        return response;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.intellij.openapi.util.text.StringUtil;
+import com.ludditelabs.intellij.autodoc.timing.RunTimings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Single autodoc invocation: command line arguments, working directory
+ * and optional text to pass to the tool's stdin.
+ *
+ * The request doesn't know how it will be executed - by a warm worker
+ * from the AutodocWorkerPool or by a separate process.
+ *
+ * Request may be canceled from any thread, in this case the executor
+ * destroys the process which runs it.
+ *
+ * If output listener is set then output is passed to it while the request
+ * is running and is not included into AutodocResponse.
+ */
+public class AutodocRequest {
+    @NotNull private final List<String> m_args = new ArrayList<>();
+    @Nullable private String m_workingDirectory = null;
+    @Nullable private String m_input = null;
+    @NotNull private Charset m_charset = Charset.forName("UTF-8");
+    @NotNull private String m_title = "Autodoc";
+    private volatile boolean m_canceled = false;
+    @Nullable private Runnable m_cancelHook = null;
+    @Nullable private AutodocOutputListener m_outputListener = null;
+    private boolean m_streamStdout = true;
+    private long m_timeout = 0;
+    private volatile boolean m_timedOut = false;
+    @NotNull private RunTimings m_timings = new RunTimings("request");
+
+    public AutodocRequest() {
+    }
+
+    /** Timings of the run this request belongs to. */
+    @NotNull
+    public RunTimings timings() {
+        return m_timings;
+    }
+
+    public void setTimings(@NotNull RunTimings timings) {
+        m_timings = timings;
+    }
+
+    @NotNull
+    public String title() {
+        return m_title;
+    }
+
+    public void setTitle(@NotNull String title) {
+        m_title = title;
+    }
+
+    @Nullable
+    public String workingDirectory() {
+        return m_workingDirectory;
+    }
+
+    public void setWorkingDirectory(@Nullable String path) {
+        m_workingDirectory = path;
+    }
+
+    /** Text to send to the process stdin or null. */
+    @Nullable
+    public String input() {
+        return m_input;
+    }
+
+    public void setInput(@Nullable String input) {
+        m_input = input;
+    }
+
+    /** Charset of the process stdin and stdout. */
+    @NotNull
+    public Charset charset() {
+        return m_charset;
+    }
+
+    public void setCharset(@NotNull Charset charset) {
+        m_charset = charset;
+    }
+
+    public void addParameters(@NotNull String... args) {
+        Collections.addAll(m_args, args);
+    }
+
+    @NotNull
+    public List<String> parameters() {
+        return Collections.unmodifiableList(m_args);
+    }
+
+    @Nullable
+    public AutodocOutputListener outputListener() {
+        return m_outputListener;
+    }
+
+    /**
+     * Set listener to stream output to.
+     *
+     * @param listener output listener or null to capture whole output.
+     * @param streamStdout if false then only stderr is streamed and stdout
+     *                     is captured (for example, if stdout contains
+     *                     fixed source).
+     */
+    public void setOutputListener(@Nullable AutodocOutputListener listener,
+                                  boolean streamStdout) {
+        m_outputListener = listener;
+        m_streamStdout = streamStdout;
+    }
+
+    /** Return true if the given output is passed to the listener. */
+    public boolean isStreamed(boolean stderr) {
+        return m_outputListener != null && (stderr || m_streamStdout);
+    }
+
+    /** Command line representation for logging. */
+    @NotNull
+    public String commandLineString() {
+        return StringUtil.join(m_args, " ");
+    }
+
+    /** Time budget in milliseconds, zero means no limit. */
+    public long timeout() {
+        return m_timeout;
+    }
+
+    /**
+     * Set time budget of the request.
+     *
+     * @param timeout timeout in milliseconds, zero means no limit.
+     * @see AutodocWatchdog
+     */
+    public void setTimeout(long timeout) {
+        m_timeout = timeout;
+    }
+
+    /** Return true if the request is canceled by timeout. */
+    public boolean isTimedOut() {
+        return m_timedOut;
+    }
+
+    /** Cancel the request because of timeout. */
+    public void timeOut() {
+        m_timedOut = true;
+        cancel();
+    }
+
+    /** Return true if the request is canceled. */
+    public boolean isCanceled() {
+        return m_canceled;
+    }
+
+    /**
+     * Cancel the request.
+     *
+     * If the request is executing then its process will be destroyed.
+     */
+    public void cancel() {
+        Runnable hook;
+        synchronized (this) {
+            m_canceled = true;
+            hook = m_cancelHook;
+            m_cancelHook = null;
+        }
+        if (hook != null)
+            hook.run();
+    }
+
+    /**
+     * Set callback to invoke on cancel.
+     *
+     * Executors use it to destroy the process which runs the request.
+     * If the request is already canceled then the hook is invoked
+     * immediately.
+     *
+     * @param hook cancel callback or null to reset.
+     */
+    public void setCancelHook(@Nullable Runnable hook) {
+        boolean run_now;
+        synchronized (this) {
+            run_now = m_canceled && hook != null;
+            m_cancelHook = run_now ? null : hook;
+        }
+        if (run_now)
+            hook.run();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.ludditelabs.intellij.common.execution.ExternalCommandResult;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Result of the AutodocRequest execution.
+ *
+ * Mirrors ExternalCommandResult API so tasks can handle results of
+ * pooled workers and one-shot processes in the same way.
+ */
+public class AutodocResponse {
+    private final boolean m_success;
+    @NotNull private final String m_stdout;
+    @NotNull private final String m_allContent;
+    @NotNull private final String m_stderr;
+
+    private AutodocResponse(boolean success, @NotNull String stdout,
+                            @NotNull String allContent,
+                            @NotNull String stderr) {
+        m_success = success;
+        m_stdout = stdout;
+        m_allContent = allContent;
+        m_stderr = stderr;
+    }
+
+    /**
+     * Create response from process output.
+     *
+     * @param exitCode process exit code.
+     * @param stdout process stdout.
+     * @param stderr process stderr.
+     * @return response.
+     */
+    @NotNull
+    public static AutodocResponse create(int exitCode, @NotNull String stdout,
+                                         @NotNull String stderr) {
+        return new AutodocResponse(exitCode == 0, stdout, stdout + stderr,
+            stderr);
+    }
+
+    /**
+     * Create response from external command result.
+     *
+     * NOTE: ExternalCommandResult doesn't separate streams,
+     * so stdout() returns all content.
+     *
+     * @param result one-shot process result.
+     * @return response.
+     */
+    @NotNull
+    public static AutodocResponse create(@NotNull ExternalCommandResult result) {
+        return new AutodocResponse(result.isSuccess(), result.allContent(),
+            result.allContent(), result.stderr());
+    }
+
+    public boolean isSuccess() {
+        return m_success;
+    }
+
+    @NotNull
+    public String stdout() {
+        return m_stdout;
+    }
+
+    @NotNull
+    public String stderr() {
+        return m_stderr;
+    }
+
+    /** Both stdout and stderr content. */
+    @NotNull
+    public String allContent() {
+        return m_allContent;
+    }
+}
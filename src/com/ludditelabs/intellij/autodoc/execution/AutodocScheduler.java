@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits number of autodoc processes running at once in all projects.
+ *
+ * Each request takes a slot before execution and returns it after.
+ * If there are no free slots then the request waits:
+ *
+ * - single file runs are served before project runs;
+ * - among requests with the same priority the project which was
+ *   served least recently goes first, so a big project run doesn't
+ *   block other projects.
+ *
+ * Max number of processes may be set with
+ * <pre>-Dludditelabs.autodoc.processes=N</pre> (default is number of CPUs).
+ * Queue depth and wait times are logged to the ludditelabs.autodoc.limit
+ * debug category and shown in the timings console, see summary().
+ */
+public class AutodocScheduler {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.limit");
+
+    /** Request priority, the first one is the highest. */
+    public enum Priority {
+        FILE,
+        PROJECT
+    }
+
+    private static class Waiter {
+        @NotNull final Priority priority;
+        @NotNull final Object owner;
+        boolean granted = false;
+
+        Waiter(@NotNull Priority priority, @NotNull Object owner) {
+            this.priority = priority;
+            this.owner = owner;
+        }
+    }
+
+    private final int m_limit;
+    private int m_active = 0;
+    @NotNull private final List<Waiter> m_waiters = new LinkedList<>();
+    // Owner -> sequence number of its last served request.
+    @NotNull private final Map<Object, Long> m_served = new HashMap<>();
+    private long m_sequence = 0;
+
+    private long m_waitCount = 0;
+    private long m_queuedCount = 0;
+    private long m_waitTotalMs = 0;
+    private long m_waitMaxMs = 0;
+
+    public AutodocScheduler() {
+        m_limit = Math.max(1, Integer.getInteger("ludditelabs.autodoc.processes",
+            Runtime.getRuntime().availableProcessors()));
+    }
+
+    public static AutodocScheduler getInstance() {
+        return ServiceManager.getService(AutodocScheduler.class);
+    }
+
+    /**
+     * Wait for a free slot.
+     *
+     * Each successful call must be followed by release().
+     *
+     * @param priority request priority.
+     * @param owner request owner (project), used to share slots fairly.
+     * @param request request to execute, waiting stops if it's canceled.
+     * @throws IOException if the request is canceled while waiting.
+     */
+    public void acquire(@NotNull Priority priority, @NotNull Object owner,
+                        @NotNull AutodocRequest request) throws IOException {
+        long start = System.nanoTime();
+        Waiter waiter = new Waiter(priority, owner);
+
+        synchronized (this) {
+            if (m_waiters.isEmpty() && m_active < m_limit) {
+                m_active++;
+                m_served.put(owner, m_sequence++);
+                updateStats(0);
+                return;
+            }
+            m_queuedCount++;
+            m_waiters.add(waiter);
+        }
+
+        // Wake up on cancel.
+        request.setCancelHook(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (AutodocScheduler.this) {
+                    AutodocScheduler.this.notifyAll();
+                }
+            }
+        });
+
+        try {
+            synchronized (this) {
+                while (!waiter.granted) {
+                    if (request.isCanceled()) {
+                        m_waiters.remove(waiter);
+                        throw new IOException("Canceled.");
+                    }
+                    wait();
+                }
+                updateStats(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (this) {
+                // Slot may be granted right before the interruption.
+                if (waiter.granted)
+                    release();
+                else
+                    m_waiters.remove(waiter);
+            }
+            throw new IOException("Interrupted.");
+        }
+        finally {
+            request.setCancelHook(null);
+        }
+    }
+
+    /** Return the slot taken by acquire(). */
+    public synchronized void release() {
+        m_active--;
+        while (m_active < m_limit && !m_waiters.isEmpty()) {
+            Waiter waiter = next();
+            m_waiters.remove(waiter);
+            waiter.granted = true;
+            m_active++;
+            m_served.put(waiter.owner, m_sequence++);
+        }
+
+        // Don't keep closed projects.
+        if (m_active == 0 && m_waiters.isEmpty())
+            m_served.clear();
+
+        notifyAll();
+    }
+
+    // Find waiter to serve next.
+    @NotNull
+    private Waiter next() {
+        Waiter best = null;
+        long best_served = 0;
+        for (Waiter waiter : m_waiters) {
+            Long served = m_served.get(waiter.owner);
+            long value = served == null ? -1 : served;
+            if (best == null
+                || waiter.priority.ordinal() < best.priority.ordinal()
+                || (waiter.priority == best.priority && value < best_served)) {
+                best = waiter;
+                best_served = value;
+            }
+        }
+        return best;
+    }
+
+    private void updateStats(long waitMs) {
+        m_waitCount++;
+        m_waitTotalMs += waitMs;
+        m_waitMaxMs = Math.max(m_waitMaxMs, waitMs);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(String.format("Waited %d ms, queue: %d, active: %d/%d",
+                waitMs, m_waiters.size(), m_active, m_limit));
+        }
+    }
+
+    /** Number of waiting requests. */
+    public synchronized int queueDepth() {
+        return m_waiters.size();
+    }
+
+    /** Number of running requests. */
+    public synchronized int activeCount() {
+        return m_active;
+    }
+
+    /** Max number of running requests. */
+    public int limit() {
+        return m_limit;
+    }
+
+    /** Number of requests which had to wait for a slot. */
+    public synchronized long queuedCount() {
+        return m_queuedCount;
+    }
+
+    /** Average wait time of all requests in milliseconds. */
+    public synchronized long averageWaitMs() {
+        return m_waitCount == 0 ? 0 : m_waitTotalMs / m_waitCount;
+    }
+
+    /** Max wait time in milliseconds. */
+    public synchronized long maxWaitMs() {
+        return m_waitMaxMs;
+    }
+
+    /**
+     * Build text summary of the current load and wait times.
+     *
+     * @return summary text.
+     */
+    @NotNull
+    public synchronized String summary() {
+        return String.format(
+            "Processes: active %d/%d, waiting %d.\n" +
+            "Requests: %d, queued %d, wait avg %d ms, max %d ms.\n",
+            m_active, m_limit, m_waiters.size(),
+            m_waitCount, m_queuedCount, averageWaitMs(), m_waitMaxMs);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.intellij.concurrency.JobScheduler;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops autodoc runs which take too long.
+ *
+ * There are two budgets:
+ *
+ * - per file: a request gets <pre>-Dludditelabs.autodoc.timeout.file=SEC</pre>
+ *   for each file passed to it (default is 60 seconds);
+ * - per run: whole task is canceled after
+ *   <pre>-Dludditelabs.autodoc.timeout.run=SEC</pre> (default is 30 minutes).
+ *
+ * Zero disables corresponding budget.
+ */
+public class AutodocWatchdog {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.watchdog");
+
+    /** Time budget for a single file in milliseconds. */
+    public static long fileBudgetMs() {
+        return TimeUnit.SECONDS.toMillis(
+            Integer.getInteger("ludditelabs.autodoc.timeout.file", 60));
+    }
+
+    /** Time budget for the whole run in milliseconds. */
+    public static long runBudgetMs() {
+        return TimeUnit.SECONDS.toMillis(
+            Integer.getInteger("ludditelabs.autodoc.timeout.run", 30 * 60));
+    }
+
+    /**
+     * Call the given action after the timeout.
+     *
+     * @param timeoutMs timeout in milliseconds, zero disables the watchdog.
+     * @param action action to call on timeout.
+     * @return watch handle, cancel it when the job is finished;
+     *         null if the watchdog is disabled.
+     */
+    @Nullable
+    public static ScheduledFuture<?> watch(long timeoutMs, @NotNull Runnable action) {
+        if (timeoutMs <= 0)
+            return null;
+        return JobScheduler.getScheduler().schedule(action, timeoutMs,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Time out the request if it runs longer than its budget.
+     *
+     * @param request request to watch.
+     * @return watch handle or null if the request has no budget.
+     * @see AutodocRequest#setTimeout(long)
+     */
+    @Nullable
+    public static ScheduledFuture<?> watch(@NotNull final AutodocRequest request) {
+        return watch(request.timeout(), new Runnable() {
+            @Override
+            public void run() {
+                LOG.warn(String.format("%s: timed out after %d ms.",
+                    request.title(), request.timeout()));
+                request.timeOut();
+            }
+        });
+    }
+
+    /**
+     * Stop watching.
+     *
+     * @param handle handle returned by watch() or null.
+     */
+    public static void unwatch(@Nullable ScheduledFuture<?> handle) {
+        if (handle != null)
+            handle.cancel(false);
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.annotations.SerializedName;
+import com.intellij.execution.ExecutionException;
+import com.intellij.execution.configurations.GeneralCommandLine;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Long-lived autodoc process.
+ *
+ * Worker is started with <pre>autodoc --worker</pre> and communicates
+ * with the plugin using line-delimited JSON over stdin/stdout.
+ *
+ * Request:
+ * <pre>{"id": 1, "cwd": "/path", "args": ["file.py", "--fix"]}</pre>
+ *
+ * Optional <pre>"stdin"</pre> field contains text which the tool must
+ * treat as its stdin (see AutodocRequest.input()).
+ *
+ * Response:
+ * <pre>{"id": 1, "code": 0, "stdout": "...", "stderr": "..."}</pre>
+ *
+ * Request with <pre>"ping": true</pre> is a health check, worker must
+ * reply with zero code.
+ *
+ * If the tool supports <pre>--worker-stream</pre> then request may have
+ * <pre>"stream": ["stdout", "stderr"]</pre> field with output channels
+ * to stream. Worker sends their output by chunks before the response:
+ * <pre>{"id": 1, "channel": "stderr", "data": "..."}</pre>
+ * and leaves them empty in the response. Chunks are passed to the
+ * request's output listener, so output is not kept in memory.
+ *
+ * Worker is not thread safe - it runs one request at a time,
+ * AutodocWorkerPool takes care of that.
+ */
+public class AutodocWorker {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.worker");
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // Healthy worker replies to ping at once.
+    private static final long PING_TIMEOUT_MS = 10 * 1000;
+
+    private static class WireRequest {
+        @SerializedName("id") long id;
+        @SerializedName("cwd") String cwd;
+        @SerializedName("args") List<String> args;
+        @SerializedName("stdin") String stdin;
+        @SerializedName("ping") Boolean ping;
+        @SerializedName("stream") List<String> stream;
+    }
+
+    // Response or output chunk if code is missing.
+    private static class WireResponse {
+        @SerializedName("id") long id;
+        @SerializedName("code") Integer code;
+        @SerializedName("stdout") String stdout;
+        @SerializedName("stderr") String stderr;
+        @SerializedName("channel") String channel;
+        @SerializedName("data") String data;
+    }
+
+    @NotNull private final Gson m_gson = new Gson();
+    @NotNull private final Process m_process;
+    private final long m_exeTimestamp;
+    @NotNull private final BufferedWriter m_writer;
+    @NotNull private final BufferedReader m_reader;
+    private long m_nextId = 1;
+    private volatile long m_lastUsed = System.currentTimeMillis();
+    private volatile boolean m_broken = false;
+    // True if the last request streamed some output.
+    private boolean m_streamed = false;
+
+    /**
+     * Start worker process.
+     *
+     * @param exePath path to the autodoc tool.
+     * @throws ExecutionException if process can't be started.
+     */
+    public AutodocWorker(@NotNull String exePath) throws ExecutionException {
+        m_exeTimestamp = new File(exePath).lastModified();
+        GeneralCommandLine cmd = new GeneralCommandLine(exePath, "--worker");
+        m_process = cmd.createProcess();
+        m_writer = new BufferedWriter(new OutputStreamWriter(
+            m_process.getOutputStream(), UTF8));
+        m_reader = new BufferedReader(new InputStreamReader(
+            m_process.getInputStream(), UTF8));
+        drainErrorStream();
+    }
+
+    // Worker's own diagnostics go to stderr, we must read it to not block
+    // the process on full pipe buffer.
+    private void drainErrorStream() {
+        final InputStream stream = m_process.getErrorStream();
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(stream, UTF8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                        LOG.debug(line);
+                }
+                catch (IOException e) {
+                    // Process is destroyed.
+                }
+            }
+        });
+    }
+
+    // Send request and wait for the response,
+    // output chunks are passed to the listener.
+    @NotNull
+    private WireResponse roundTrip(@NotNull WireRequest request,
+                                   @Nullable AutodocOutputListener listener)
+        throws IOException {
+        request.id = m_nextId++;
+        try {
+            m_writer.write(m_gson.toJson(request));
+            m_writer.newLine();
+            m_writer.flush();
+
+            while (true) {
+                String line = m_reader.readLine();
+                if (line == null)
+                    throw new EOFException("Autodoc worker is terminated.");
+
+                WireResponse response = m_gson.fromJson(line, WireResponse.class);
+                if (response == null || response.id != request.id)
+                    throw new IOException("Autodoc worker protocol error.");
+                if (response.code != null)
+                    return response;
+
+                if (listener == null || response.data == null)
+                    throw new IOException("Autodoc worker protocol error.");
+                m_streamed = true;
+                listener.onOutput(response.data, "stderr".equals(response.channel));
+            }
+        }
+        catch (IOException | JsonSyntaxException e) {
+            // After any failure worker's state is unknown.
+            m_broken = true;
+            if (e instanceof IOException)
+                throw (IOException)e;
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Execute request.
+     *
+     * @param request autodoc request.
+     * @return execution result.
+     * @throws IOException if worker is crashed or destroyed.
+     */
+    @NotNull
+    public AutodocResponse execute(@NotNull AutodocRequest request) throws IOException {
+        WireRequest wire = new WireRequest();
+        wire.cwd = request.workingDirectory();
+        wire.args = request.parameters();
+        wire.stdin = request.input();
+
+        m_streamed = false;
+        AutodocOutputListener listener = request.outputListener();
+        if (listener != null) {
+            wire.stream = new ArrayList<>();
+            if (request.isStreamed(false))
+                wire.stream.add("stdout");
+            if (request.isStreamed(true))
+                wire.stream.add("stderr");
+        }
+
+        WireResponse response;
+        try {
+            response = roundTrip(wire, listener);
+        }
+        finally {
+            // NOTE: pings don't count, otherwise idle workers never expire.
+            m_lastUsed = System.currentTimeMillis();
+        }
+        return AutodocResponse.create(response.code,
+            response.stdout != null ? response.stdout : "",
+            response.stderr != null ? response.stderr : "");
+    }
+
+    /**
+     * Check if worker is able to process requests.
+     *
+     * Hung worker is destroyed if it doesn't reply in PING_TIMEOUT_MS,
+     * so the caller is not blocked forever.
+     *
+     * @return true if worker replied on ping request.
+     */
+    public boolean ping() {
+        if (!isAlive())
+            return false;
+
+        WireRequest wire = new WireRequest();
+        wire.ping = true;
+        ScheduledFuture<?> watch = AutodocWatchdog.watch(PING_TIMEOUT_MS, new Runnable() {
+            @Override
+            public void run() {
+                LOG.debug("Worker ping is timed out.");
+                destroy();
+            }
+        });
+        try {
+            WireResponse response = roundTrip(wire, null);
+            return response.code != null && response.code == 0;
+        }
+        catch (IOException e) {
+            LOG.debug(e);
+            return false;
+        }
+        finally {
+            AutodocWatchdog.unwatch(watch);
+        }
+    }
+
+    /** Return true if worker process is running and in a consistent state. */
+    public boolean isAlive() {
+        if (m_broken)
+            return false;
+        try {
+            m_process.exitValue();
+            return false;
+        }
+        catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    /** Modification time of the executable the worker is started from. */
+    public long exeTimestamp() {
+        return m_exeTimestamp;
+    }
+
+    /** Return true if the last request passed some output to the listener. */
+    public boolean hasStreamed() {
+        return m_streamed;
+    }
+
+    /** Time of the last request (not ping) in milliseconds. */
+    public long lastUsed() {
+        return m_lastUsed;
+    }
+
+    /**
+     * Destroy worker process.
+     *
+     * May be called from any thread, pending request will fail
+     * with IOException.
+     */
+    public void destroy() {
+        m_broken = true;
+        ProcessKiller.kill(m_process);
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.intellij.execution.ExecutionException;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.Alarm;
+import com.ludditelabs.intellij.autodoc.timing.RunTimings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Pool of warm autodoc worker processes.
+ *
+ * Autodoc tool is a frozen python app and its startup (interpreter
+ * initialization and bundle unpacking) often takes longer than the
+ * processing itself. The pool keeps a few workers alive between runs:
+ *
+ * - workers are started on demand, up to the pool size; if all workers
+ *   are busy then execute() returns null and the caller starts a usual
+ *   process, so parallel runs are not serialized by the pool;
+ * - idle workers are pinged periodically, dead ones are dropped;
+ * - workers which are idle for too long are shut down;
+ * - if a worker crashes while running a request then the request
+ *   is retried once on a fresh worker.
+ *
+ * If the installed tool has no worker mode then the pool is disabled and
+ * execute() returns null, so callers fall back to one-shot processes.
+ * Requests with output listener are executed on workers only if the tool
+ * can stream worker output, otherwise one-shot process streams it, so
+ * the whole output is never kept in memory.
+ *
+ * Pool size may be set with <pre>-Dludditelabs.autodoc.workers=N</pre>,
+ * zero disables the pool.
+ */
+public class AutodocWorkerPool implements Disposable {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.worker");
+    private static final long IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+    private static final int HEALTH_CHECK_DELAY_MS = 60 * 1000;
+
+    private final int m_maxSize;
+    @NotNull private final Deque<AutodocWorker> m_idle = new ArrayDeque<>();
+    @NotNull private final Alarm m_alarm;
+    private int m_size = 0;
+    private long m_exeTimestamp = 0;
+    private boolean m_disposed = false;
+
+    public AutodocWorkerPool() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        m_maxSize = Integer.getInteger(
+            "ludditelabs.autodoc.workers", Math.min(2, cpus));
+        m_alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+        scheduleHealthCheck();
+    }
+
+    public static AutodocWorkerPool getInstance() {
+        return ServiceManager.getService(AutodocWorkerPool.class);
+    }
+
+    private void scheduleHealthCheck() {
+        m_alarm.addRequest(new Runnable() {
+            @Override
+            public void run() {
+                checkIdleWorkers();
+                scheduleHealthCheck();
+            }
+        }, HEALTH_CHECK_DELAY_MS);
+    }
+
+    // Ping idle workers and shut down unused ones.
+    private void checkIdleWorkers() {
+        List<AutodocWorker> workers;
+        synchronized (this) {
+            workers = new ArrayList<>(m_idle);
+            m_idle.clear();
+        }
+
+        long now = System.currentTimeMillis();
+        for (AutodocWorker worker : workers) {
+            boolean keep;
+            if (now - worker.lastUsed() > IDLE_TIMEOUT_MS) {
+                LOG.debug("Shutdown idle worker.");
+                keep = false;
+            }
+            else {
+                keep = worker.ping();
+                if (!keep)
+                    LOG.debug("Worker is not responding, drop it.");
+            }
+            release(worker, keep);
+        }
+    }
+
+    /** Return true if the pool can be used with the given tool. */
+    public boolean isAvailable(@NotNull String exePath) {
+        return m_maxSize > 0
+            && AutodocCapabilities.get(exePath).supportsWorker();
+    }
+
+    // Get free worker or start a new one.
+    // Returns null if all workers are busy.
+    @Nullable
+    private AutodocWorker acquire(@NotNull String exePath) {
+        synchronized (this) {
+            // Restart workers if platform bundle is updated.
+            long timestamp = new File(exePath).lastModified();
+            if (timestamp != m_exeTimestamp) {
+                m_exeTimestamp = timestamp;
+                for (AutodocWorker worker : m_idle) {
+                    worker.destroy();
+                    m_size--;
+                }
+                m_idle.clear();
+            }
+
+            if (m_disposed)
+                return null;
+
+            AutodocWorker worker;
+            while ((worker = m_idle.pollFirst()) != null) {
+                if (worker.isAlive())
+                    return worker;
+                m_size--;
+            }
+
+            if (m_size >= m_maxSize)
+                return null;
+            m_size++;
+        }
+
+        // Slot is reserved, start the worker outside of the lock.
+        try {
+            LOG.debug("Start autodoc worker.");
+            return new AutodocWorker(exePath);
+        }
+        catch (ExecutionException e) {
+            LOG.debug(e);
+            synchronized (this) {
+                m_size--;
+            }
+            return null;
+        }
+    }
+
+    // Workers started from the previous bundle version are not kept,
+    // they may be busy when the bundle is updated.
+    private synchronized void release(@NotNull AutodocWorker worker, boolean keep) {
+        if (keep && !m_disposed && worker.isAlive()
+            && worker.exeTimestamp() == m_exeTimestamp) {
+            m_idle.addFirst(worker);
+        }
+        else {
+            worker.destroy();
+            m_size--;
+        }
+    }
+
+    /**
+     * Execute request on a pooled worker.
+     *
+     * Blocks until the request is processed. Cancel the request to stop it.
+     *
+     * @param exePath path to the autodoc tool.
+     * @param request request to execute.
+     * @return execution result or null if the pool can't be used or all
+     *         workers are busy (in this case the request must be executed
+     *         in a usual way).
+     * @throws IOException if the worker crashes twice or request is canceled.
+     */
+    @Nullable
+    public AutodocResponse execute(@NotNull String exePath,
+                                   @NotNull AutodocRequest request) throws IOException {
+        if (!isAvailable(exePath))
+            return null;
+        if (request.outputListener() != null
+            && !AutodocCapabilities.get(exePath).supportsWorkerStreaming())
+            return null;
+
+        for (int attempt = 0; ; attempt++) {
+            if (request.isCanceled())
+                throw new IOException("Canceled.");
+
+            // Usually it's a warm worker, spawn time is near zero then.
+            RunTimings timings = request.timings();
+            long start = timings.start();
+            final AutodocWorker worker = acquire(exePath);
+            if (worker == null)
+                return null;
+            timings.finish(RunTimings.Phase.SPAWN, start);
+
+            request.setCancelHook(new Runnable() {
+                @Override
+                public void run() {
+                    worker.destroy();
+                }
+            });
+
+            boolean keep = false;
+            try {
+                start = timings.start();
+                AutodocResponse response = worker.execute(request);
+                timings.finish(RunTimings.Phase.EXEC, start);
+                keep = true;
+                return response;
+            }
+            catch (IOException e) {
+                // Don't repeat output which is already streamed.
+                if (request.isCanceled() || attempt > 0 || worker.hasStreamed())
+                    throw e;
+                LOG.debug("Worker is crashed, restart it.", e);
+            }
+            finally {
+                request.setCancelHook(null);
+                release(worker, keep);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() {
+        synchronized (this) {
+            m_disposed = true;
+            for (AutodocWorker worker : m_idle)
+                worker.destroy();
+            m_size -= m_idle.size();
+            m_idle.clear();
+        }
+    }
+}
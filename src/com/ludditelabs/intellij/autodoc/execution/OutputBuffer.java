@@ -0,0 +1,138 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+
+/**
+ * Append-only text buffer with bounded memory usage.
+ *
+ * Text is kept in memory until its size reaches the threshold, after that
+ * the whole content is moved to a temp file and next text is appended
+ * to the file.
+ */
+public class OutputBuffer {
+    private static final Logger LOG = Logger.getInstance(OutputBuffer.class);
+
+    private final int m_threshold;
+    @NotNull private final StringBuilder m_memory = new StringBuilder();
+    @Nullable private File m_file = null;
+    @Nullable private Writer m_writer = null;
+    private long m_length = 0;
+
+    /**
+     * Construct buffer.
+     *
+     * @param threshold max number of chars to keep in memory.
+     */
+    public OutputBuffer(int threshold) {
+        m_threshold = threshold;
+    }
+
+    /**
+     * Append text to the buffer.
+     *
+     * If the text can't be written to the disk then it's dropped.
+     *
+     * @param text text to append.
+     */
+    public synchronized void append(@NotNull String text) {
+        m_length += text.length();
+
+        if (m_writer == null) {
+            if (m_memory.length() + text.length() <= m_threshold) {
+                m_memory.append(text);
+                return;
+            }
+            if (!spill())
+                return;
+        }
+
+        try {
+            m_writer.write(text);
+        }
+        catch (IOException e) {
+            LOG.debug(e);
+        }
+    }
+
+    // Move memory content to the temp file.
+    private boolean spill() {
+        if (m_file != null)
+            return false;
+
+        try {
+            m_file = FileUtil.createTempFile("autodoc", ".log", true);
+            m_writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(m_file), "UTF-8"));
+            m_writer.write(m_memory.toString());
+        }
+        catch (IOException e) {
+            LOG.debug(e);
+            close();
+            return false;
+        }
+        finally {
+            m_memory.setLength(0);
+            m_memory.trimToSize();
+        }
+        return true;
+    }
+
+    /** Number of appended chars. */
+    public synchronized long length() {
+        return m_length;
+    }
+
+    /** Return true if the content is moved to the disk. */
+    public synchronized boolean isSpilled() {
+        return m_file != null;
+    }
+
+    /** File with the content or null if it's in memory. */
+    @Nullable
+    public synchronized File file() {
+        return m_file;
+    }
+
+    /** Flush and close the file, next text is dropped. */
+    public synchronized void close() {
+        if (m_writer != null) {
+            try {
+                m_writer.close();
+            }
+            catch (IOException e) {
+                LOG.debug(e);
+            }
+            m_writer = null;
+        }
+    }
+
+    /** Drop the content and remove the file. */
+    public synchronized void dispose() {
+        close();
+        if (m_file != null)
+            FileUtil.delete(m_file);
+        m_memory.setLength(0);
+        m_memory.trimToSize();
+    }
+}
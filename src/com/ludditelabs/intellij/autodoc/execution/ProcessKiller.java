@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.execution;
+
+import com.intellij.execution.process.OSProcessUtil;
+import com.intellij.execution.process.UnixProcessManager;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.SystemInfo;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stops autodoc process with all its children.
+ *
+ * At first the process tree gets SIGTERM (on Windows the process is
+ * destroyed), if it's still alive after the grace period then the whole
+ * tree is killed. Grace period may be set with
+ * <pre>-Dludditelabs.autodoc.kill.grace=MS</pre>.
+ *
+ * Killing is done in a pooled thread, so it's safe to call it
+ * from the AWT thread.
+ */
+public class ProcessKiller {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.process");
+    private static final long POLL_MS = 20;
+
+    private static long gracePeriod() {
+        return Integer.getInteger("ludditelabs.autodoc.kill.grace", 2000);
+    }
+
+    /**
+     * Stop the process in a background thread.
+     *
+     * @param process process to stop.
+     */
+    public static void kill(@NotNull final Process process) {
+        if (!isAlive(process))
+            return;
+
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            @Override
+            public void run() {
+                killAndWait(process);
+            }
+        });
+    }
+
+    /**
+     * Stop the process and wait for it.
+     *
+     * @param process process to stop.
+     */
+    public static void killAndWait(@NotNull Process process) {
+        if (!isAlive(process))
+            return;
+
+        long start = System.currentTimeMillis();
+        if (SystemInfo.isUnix)
+            UnixProcessManager.sendSignalToProcessTree(process, UnixProcessManager.SIGTERM);
+        else
+            process.destroy();
+
+        if (waitFor(process, gracePeriod())) {
+            LOG.debug(String.format("Process is stopped in %d ms.",
+                System.currentTimeMillis() - start));
+            return;
+        }
+
+        LOG.debug("Process is not stopped in time, kill it.");
+        OSProcessUtil.killProcessTree(process);
+        waitFor(process, gracePeriod());
+    }
+
+    /** Return true if the process is running. */
+    public static boolean isAlive(@NotNull Process process) {
+        try {
+            process.exitValue();
+            return false;
+        }
+        catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    // Return true if the process is finished within the given time.
+    private static boolean waitFor(@NotNull Process process, long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (isAlive(process)) {
+            if (System.currentTimeMillis() >= deadline)
+                return false;
+            try {
+                Thread.sleep(POLL_MS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return !isAlive(process);
+            }
+        }
+        return true;
+    }
+}
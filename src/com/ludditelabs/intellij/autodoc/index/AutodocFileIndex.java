@@ -0,0 +1,244 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.index;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persistent per-file state of the last autodoc project run.
+ *
+ * For each processed file the index stores its content hash, platform
+ * bundle version and result of the run. Next project run sends to autodoc
+ * only files which are changed since then or were processed by another
+ * bundle version or with errors.
+ *
+ * To not hash the whole project on each run, file size and modification
+ * time are checked first; VFS listener marks files changed in the IDE,
+ * such files are always rehashed.
+ *
+ * Index is stored in the IDE system directory, one file per project.
+ */
+public class AutodocFileIndex implements Disposable {
+    private static final Logger LOG = Logger.getInstance(AutodocFileIndex.class);
+    private static final int FORMAT_VERSION = 1;
+
+    private static class Entry {
+        @NotNull final String hash;
+        @NotNull final String bundleVersion;
+        final long timestamp;
+        final long length;
+        final boolean success;
+
+        Entry(@NotNull String hash, @NotNull String bundleVersion,
+              long timestamp, long length, boolean success) {
+            this.hash = hash;
+            this.bundleVersion = bundleVersion;
+            this.timestamp = timestamp;
+            this.length = length;
+            this.success = success;
+        }
+    }
+
+    @NotNull private final File m_storage;
+    @NotNull private final ConcurrentMap<String, Entry> m_entries = new ConcurrentHashMap<>();
+    @NotNull private final Set<String> m_dirty = ContainerUtil.newConcurrentSet();
+    private volatile boolean m_modified = false;
+
+    public AutodocFileIndex(@NotNull Project project) {
+        m_storage = Paths.get(PathManager.getSystemPath(),
+            "ludditelabs.autodoc", "index",
+            project.getLocationHash() + ".dat").toFile();
+        load();
+
+        project.getMessageBus().connect(this).subscribe(
+            VirtualFileManager.VFS_CHANGES, new BulkFileListener.Adapter() {
+                @Override
+                public void after(@NotNull List<? extends VFileEvent> events) {
+                    for (VFileEvent event : events) {
+                        String path = event.getPath();
+                        if (m_entries.containsKey(path))
+                            m_dirty.add(path);
+                    }
+                }
+            });
+    }
+
+    public static AutodocFileIndex getInstance(@NotNull Project project) {
+        return ServiceManager.getService(project, AutodocFileIndex.class);
+    }
+
+    // SHA-1 of the file content or null if it can't be read.
+    @Nullable
+    static String computeHash(@NotNull File file) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(FileUtil.loadFileBytes(file));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest())
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        }
+        catch (IOException | NoSuchAlgorithmException e) {
+            LOG.debug(e);
+            return null;
+        }
+    }
+
+    /**
+     * Check if the file needs to be processed by autodoc.
+     *
+     * @param file file to check.
+     * @param bundleVersion current platform bundle version.
+     * @return true if the file is changed since last successful run.
+     */
+    public boolean isOutdated(@NotNull VirtualFile file,
+                              @NotNull String bundleVersion) {
+        String path = file.getPath();
+        Entry entry = m_entries.get(path);
+        if (entry == null || !entry.success
+            || !entry.bundleVersion.equals(bundleVersion))
+            return true;
+
+        File io = new File(path);
+        long timestamp = io.lastModified();
+        long length = io.length();
+        if (!m_dirty.contains(path) && entry.timestamp == timestamp
+            && entry.length == length)
+            return false;
+
+        // File is touched, compare content.
+        String hash = computeHash(io);
+        if (hash == null || !hash.equals(entry.hash))
+            return true;
+
+        m_dirty.remove(path);
+        m_entries.put(path, new Entry(hash, bundleVersion, timestamp,
+            length, true));
+        m_modified = true;
+        return false;
+    }
+
+    /**
+     * Store file state after autodoc run.
+     *
+     * NOTE: file content is read from disk, so call this method after
+     * the tool is finished.
+     *
+     * @param file processed file.
+     * @param bundleVersion platform bundle version.
+     * @param success run result.
+     */
+    public void update(@NotNull VirtualFile file, @NotNull String bundleVersion,
+                       boolean success) {
+        String path = file.getPath();
+        File io = new File(path);
+        String hash = computeHash(io);
+        if (hash == null) {
+            m_entries.remove(path);
+        }
+        else {
+            m_entries.put(path, new Entry(hash, bundleVersion,
+                io.lastModified(), io.length(), success));
+        }
+        m_dirty.remove(path);
+        m_modified = true;
+    }
+
+    /** Forget all files, next run will process whole project. */
+    public void clear() {
+        m_entries.clear();
+        m_dirty.clear();
+        m_modified = true;
+    }
+
+    private void load() {
+        if (!m_storage.exists())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(m_storage)))) {
+            if (in.readInt() != FORMAT_VERSION)
+                return;
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                m_entries.put(path, new Entry(in.readUTF(), in.readUTF(),
+                    in.readLong(), in.readLong(), in.readBoolean()));
+            }
+        }
+        catch (IOException e) {
+            LOG.debug(e);
+            m_entries.clear();
+        }
+    }
+
+    /** Write the index to disk if it's changed. */
+    public synchronized void save() {
+        if (!m_modified)
+            return;
+        m_modified = false;
+
+        // Copy to not write partially modified data.
+        Map<String, Entry> entries = new HashMap<>(m_entries);
+        FileUtil.createParentDirs(m_storage);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(m_storage)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> item : entries.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeUTF(entry.hash);
+                out.writeUTF(entry.bundleVersion);
+                out.writeLong(entry.timestamp);
+                out.writeLong(entry.length);
+                out.writeBoolean(entry.success);
+            }
+        }
+        catch (IOException e) {
+            LOG.debug(e);
+            // Try again on the next save.
+            m_modified = true;
+        }
+    }
+
+    @Override
+    public void dispose() {
+        save();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.index;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * On-disk state of files before an autodoc run.
+ *
+ * It's used to find files which are rewritten by the tool and refresh
+ * only them instead of the whole project.
+ *
+ * Modification time and size are compared first. File systems may have
+ * coarse time resolution, so content of files modified shortly before
+ * the snapshot is hashed too.
+ */
+public class FileSnapshot {
+    // Max file system timestamp resolution.
+    private static final long TIME_RESOLUTION_MS = 2000;
+
+    private static class State {
+        final long timestamp;
+        final long length;
+        @Nullable final String hash;
+
+        State(long timestamp, long length, @Nullable String hash) {
+            this.timestamp = timestamp;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    @NotNull private final Map<VirtualFile, State> m_states = new LinkedHashMap<>();
+
+    private FileSnapshot() {
+    }
+
+    /**
+     * Remember current state of the given files.
+     *
+     * @param files files to remember.
+     * @return snapshot.
+     */
+    @NotNull
+    public static FileSnapshot take(@NotNull Collection<VirtualFile> files) {
+        FileSnapshot snapshot = new FileSnapshot();
+        long now = System.currentTimeMillis();
+        for (VirtualFile file : files) {
+            File io = new File(file.getPath());
+            long timestamp = io.lastModified();
+            String hash = now - timestamp < TIME_RESOLUTION_MS
+                ? AutodocFileIndex.computeHash(io)
+                : null;
+            snapshot.m_states.put(file, new State(timestamp, io.length(), hash));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get files which are changed on disk since the snapshot.
+     *
+     * @return list of changed files.
+     */
+    @NotNull
+    public List<VirtualFile> changedFiles() {
+        List<VirtualFile> result = new ArrayList<>();
+        for (Map.Entry<VirtualFile, State> item : m_states.entrySet()) {
+            State state = item.getValue();
+            File io = new File(item.getKey().getPath());
+
+            boolean changed;
+            if (io.lastModified() != state.timestamp || io.length() != state.length)
+                changed = true;
+            else if (state.hash != null)
+                changed = !state.hash.equals(AutodocFileIndex.computeHash(io));
+            else
+                changed = false;
+
+            if (changed)
+                result.add(item.getKey());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Statistics store in a memory-mapped append-only log.
+ *
+ * File starts with a header: magic, format version and offset of the
+ * data end. Each change (usage increment, meta value, deletion) is
+ * appended as a record:
+ * <pre>[int length][byte type][payload]</pre>
+ * and the data end in the header is updated after the records are
+ * written, so a batch becomes visible at once.
+ *
+ * Whole state is replayed into memory on open, reads don't touch the file.
+ * When the log grows twice as big as its compacted state, it's rewritten
+ * with one record per counter. Compacted image is saved to a side file
+ * first, so compaction interrupted by a crash is finished on next open.
+ *
+ * NOTE: appends are not forced to disk, they survive IDE crash but may
+ * be lost on OS crash. It's fine for statistics.
+ */
+public class MappedStatisticsStore implements StatisticsStore {
+    private static final Logger LOG = Logger.getInstance(MappedStatisticsStore.class);
+    private static final int MAGIC = 0x41445354;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int END_OFFSET = 8;
+    private static final int INITIAL_SIZE = 64 * 1024;
+    private static final int COMPACT_MIN = 64 * 1024;
+
+    private static final byte TYPE_USAGE = 1;
+    private static final byte TYPE_META = 2;
+    private static final byte TYPE_DELETE = 3;
+
+    @NotNull private final File m_file;
+    @NotNull private final File m_compactFile;
+    @NotNull private final RandomAccessFile m_raf;
+    @NotNull private final FileChannel m_channel;
+    @NotNull private MappedByteBuffer m_buffer;
+    private long m_end = HEADER_SIZE;
+    // Size of the log after the last compaction.
+    private long m_compactedEnd = HEADER_SIZE;
+
+    @NotNull private final Map<String, String> m_meta = new HashMap<>();
+    // Key is date, feature and lang joined with '\n'.
+    @NotNull private final NavigableMap<String, UsageRecord> m_usage = new TreeMap<>();
+
+    /**
+     * Open or create the store.
+     *
+     * @param path log file path.
+     * @throws IOException if the file can't be opened or mapped.
+     */
+    public MappedStatisticsStore(@NotNull String path) throws IOException {
+        m_file = new File(path);
+        m_compactFile = new File(path + ".compact");
+        FileUtil.createParentDirs(m_file);
+        recoverCompaction();
+
+        m_raf = new RandomAccessFile(m_file, "rw");
+        m_channel = m_raf.getChannel();
+        try {
+            m_buffer = map(Math.max(INITIAL_SIZE, m_raf.length()));
+            load();
+        }
+        catch (IOException e) {
+            m_channel.close();
+            m_raf.close();
+            throw e;
+        }
+        m_compactedEnd = m_end;
+    }
+
+    @NotNull
+    private MappedByteBuffer map(long size) throws IOException {
+        if (m_raf.length() < size)
+            m_raf.setLength(size);
+        return m_channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    // Finish compaction interrupted by a crash.
+    private void recoverCompaction() throws IOException {
+        if (!m_compactFile.exists())
+            return;
+
+        byte[] image = FileUtil.loadFileBytes(m_compactFile);
+        ByteBuffer header = ByteBuffer.wrap(image);
+        if (image.length >= HEADER_SIZE && header.getInt(0) == MAGIC
+            && header.getLong(END_OFFSET) == image.length) {
+            LOG.debug("Finish interrupted compaction.");
+            try (RandomAccessFile raf = new RandomAccessFile(m_file, "rw")) {
+                raf.write(image);
+                raf.getFD().sync();
+            }
+        }
+        FileUtil.delete(m_compactFile);
+    }
+
+    // Read header and replay records.
+    private void load() throws IOException {
+        if (m_buffer.getInt(0) != MAGIC || m_buffer.getInt(4) != VERSION) {
+            // New or unknown file, start from scratch.
+            m_buffer.putInt(0, MAGIC);
+            m_buffer.putInt(4, VERSION);
+            m_buffer.putLong(END_OFFSET, HEADER_SIZE);
+            m_end = HEADER_SIZE;
+            return;
+        }
+
+        long end = Math.min(m_buffer.getLong(END_OFFSET), m_buffer.capacity());
+        ByteBuffer data = m_buffer.duplicate();
+        data.position(HEADER_SIZE);
+        data.limit((int)Math.max(HEADER_SIZE, end));
+
+        int pos = HEADER_SIZE;
+        while (data.remaining() >= 4) {
+            int length = data.getInt();
+            if (length <= 0 || length > data.remaining())
+                break;
+            byte[] payload = new byte[length];
+            data.get(payload);
+            apply(new DataInputStream(new ByteArrayInputStream(payload)));
+            pos = data.position();
+        }
+
+        if (pos != end) {
+            LOG.debug("Statistics log is truncated at " + pos);
+            m_buffer.putLong(END_OFFSET, pos);
+        }
+        m_end = pos;
+    }
+
+    @NotNull
+    private static String key(@NotNull String date, @NotNull String feature,
+                              @NotNull String lang) {
+        return date + '\n' + feature + '\n' + lang;
+    }
+
+    private void addCount(@NotNull String date, @NotNull String feature,
+                          @NotNull String lang, int count) {
+        String key = key(date, feature, lang);
+        UsageRecord record = m_usage.get(key);
+        m_usage.put(key, new UsageRecord(date, feature, lang,
+            record == null ? count : record.count() + count));
+    }
+
+    private void deleteBefore(@NotNull String date) {
+        Iterator<UsageRecord> it = m_usage.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().date().compareTo(date) < 0)
+                it.remove();
+        }
+    }
+
+    // Apply single record to the in-memory state.
+    private void apply(@NotNull DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_USAGE:
+                addCount(in.readUTF(), in.readUTF(), in.readUTF(), in.readInt());
+                break;
+            case TYPE_META:
+                m_meta.put(in.readUTF(), in.readUTF());
+                break;
+            case TYPE_DELETE:
+                deleteBefore(in.readUTF());
+                break;
+            default:
+                LOG.debug("Unknown statistics record: " + type);
+        }
+    }
+
+    private static void writeUsage(@NotNull DataOutputStream out,
+                                   @NotNull UsageRecord record) throws IOException {
+        writeRecord(out, TYPE_USAGE, record.date(), record.feature(),
+            record.lang(), record.count());
+    }
+
+    // Write framed record: strings and optional int.
+    private static void writeRecord(@NotNull DataOutputStream out, byte type,
+                                    Object... fields) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(type);
+        for (Object field : fields) {
+            if (field instanceof Integer)
+                payload.writeInt((Integer)field);
+            else
+                payload.writeUTF((String)field);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    // Append records and publish them by updating the header.
+    private void append(@NotNull ByteArrayOutputStream records) throws IOException {
+        long end = m_end + records.size();
+        if (end > m_buffer.capacity())
+            m_buffer = map(Math.max(end, 2L * m_buffer.capacity()));
+
+        m_buffer.position((int)m_end);
+        m_buffer.put(records.toByteArray());
+        m_buffer.putLong(END_OFFSET, end);
+        m_end = end;
+    }
+
+    // Compact the log if it's grown enough since the last compaction.
+    // NOTE: call it after in-memory state is updated.
+    private void compactIfNeeded() throws IOException {
+        if (m_end - m_compactedEnd > Math.max(COMPACT_MIN, m_compactedEnd))
+            compact();
+    }
+
+    /**
+     * Rewrite the log with the current state only.
+     *
+     * @throws IOException on write errors.
+     */
+    public synchronized void compact() throws IOException {
+        ByteArrayOutputStream image = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(image);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(0);
+        for (Map.Entry<String, String> entry : m_meta.entrySet())
+            writeRecord(out, TYPE_META, entry.getKey(), entry.getValue());
+        for (UsageRecord record : m_usage.values())
+            writeUsage(out, record);
+
+        byte[] bytes = image.toByteArray();
+        ByteBuffer.wrap(bytes).putLong(END_OFFSET, bytes.length);
+
+        // Save image first to recover on crash, see recoverCompaction().
+        try (FileOutputStream stream = new FileOutputStream(m_compactFile)) {
+            stream.write(bytes);
+            stream.getFD().sync();
+        }
+
+        m_buffer.position(0);
+        m_buffer.put(bytes);
+        m_buffer.force();
+        FileUtil.delete(m_compactFile);
+
+        LOG.debug(String.format("Compacted statistics log: %d -> %d bytes.",
+            m_end, bytes.length));
+        m_end = bytes.length;
+        m_compactedEnd = m_end;
+    }
+
+    @Nullable
+    @Override
+    public synchronized String getMetaValue(@NotNull String name) {
+        return m_meta.get(name);
+    }
+
+    @Override
+    public synchronized void setMetaValue(@NotNull String name,
+                                          @NotNull String value) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        writeRecord(new DataOutputStream(records), TYPE_META, name, value);
+        append(records);
+        m_meta.put(name, value);
+        compactIfNeeded();
+    }
+
+    @Override
+    public synchronized void addUsage(@NotNull Collection<UsageRecord> records)
+        throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (UsageRecord record : records)
+            writeUsage(out, record);
+        append(bytes);
+
+        for (UsageRecord record : records)
+            addCount(record.date(), record.feature(), record.lang(), record.count());
+        compactIfNeeded();
+    }
+
+    @NotNull
+    @Override
+    public synchronized List<UsageRecord> getUsage(@NotNull String date) {
+        List<UsageRecord> result = new ArrayList<>();
+        for (UsageRecord record : m_usage.values()) {
+            if (record.date().compareTo(date) <= 0)
+                result.add(record);
+        }
+        return result;
+    }
+
+    @NotNull
+    @Override
+    public synchronized List<UsageRecord> getUsage(@NotNull String date,
+                                                   @Nullable UsageRecord after,
+                                                   int limit) {
+        // Keys are ordered by date, feature and lang.
+        Map<String, UsageRecord> tail = after == null ? m_usage
+            : m_usage.tailMap(key(after.date(), after.feature(), after.lang()), false);
+        List<UsageRecord> result = new ArrayList<>();
+        for (UsageRecord record : tail.values()) {
+            if (result.size() >= limit || record.date().compareTo(date) > 0)
+                break;
+            result.add(record);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void deleteUsageBefore(@NotNull String date) throws IOException {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        writeRecord(new DataOutputStream(records), TYPE_DELETE, date);
+        append(records);
+        deleteBefore(date);
+        compactIfNeeded();
+    }
+
+    // NOTE: mapping itself is released by GC.
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            m_buffer.force();
+        }
+        finally {
+            m_channel.close();
+            m_raf.close();
+        }
+    }
+}
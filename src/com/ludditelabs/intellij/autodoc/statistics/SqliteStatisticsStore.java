@@ -0,0 +1,224 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Statistics store on top of the sqlite database.
+ *
+ * Writes are serialized by the store lock, getUsage() uses the reader
+ * connection under its own lock, so upload doesn't wait for flushes.
+ *
+ * @see StatisticsDb
+ */
+public class SqliteStatisticsStore implements StatisticsStore {
+    private static final Logger LOG = Logger.getInstance(SqliteStatisticsStore.class);
+    @NotNull private final StatisticsDb m_db;
+    @NotNull private final Object m_readLock = new Object();
+
+    public SqliteStatisticsStore(@NotNull StatisticsDb db) {
+        m_db = db;
+    }
+
+    @NotNull
+    private static IOException error(@NotNull SQLException e) {
+        LOG.debug(e);
+        return new IOException(e.getMessage(), e);
+    }
+
+    @Nullable
+    @Override
+    public synchronized String getMetaValue(@NotNull String name) throws IOException {
+        try {
+            return m_db.getMetaValue(name);
+        }
+        catch (SQLException e) {
+            throw error(e);
+        }
+    }
+
+    @Override
+    public synchronized void setMetaValue(@NotNull String name,
+                                          @NotNull String value) throws IOException {
+        try {
+            m_db.setMetaValue(name, value);
+        }
+        catch (SQLException e) {
+            throw error(e);
+        }
+    }
+
+    // NOTE: sqlite 3.6 has no "ON CONFLICT DO UPDATE", so upsert is
+    // "INSERT OR IGNORE" of a zero row and then increment.
+    @Override
+    public synchronized void addUsage(@NotNull Collection<UsageRecord> records)
+        throws IOException {
+        Connection conn = m_db.getConnection();
+        try {
+            PreparedStatement insert = m_db.prepare(
+                "INSERT OR IGNORE INTO feature_usage(timestamp, feature, lang, count) " +
+                    "VALUES (?, ?, ?, 0)");
+            PreparedStatement update = m_db.prepare(
+                "UPDATE feature_usage SET count = count + ? " +
+                    "WHERE timestamp=? AND feature=? AND lang=?");
+            conn.setAutoCommit(false);
+            try {
+                for (UsageRecord record : records) {
+                    insert.setString(1, record.date());
+                    insert.setString(2, record.feature());
+                    insert.setString(3, record.lang());
+                    insert.addBatch();
+
+                    update.setInt(1, record.count());
+                    update.setString(2, record.date());
+                    update.setString(3, record.feature());
+                    update.setString(4, record.lang());
+                    update.addBatch();
+                }
+                insert.executeBatch();
+                update.executeBatch();
+                conn.commit();
+            }
+            catch (SQLException e) {
+                insert.clearBatch();
+                update.clearBatch();
+                conn.rollback();
+                throw e;
+            }
+            finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        catch (SQLException e) {
+            throw error(e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public List<UsageRecord> getUsage(@NotNull String date) throws IOException {
+        List<UsageRecord> result = new ArrayList<>();
+        synchronized (m_readLock) {
+            try {
+                PreparedStatement stmt = m_db.prepareRead(
+                    "SELECT timestamp, feature, lang, count " +
+                        "FROM feature_usage WHERE timestamp <= ?");
+                stmt.setString(1, date);
+                try (ResultSet res = stmt.executeQuery()) {
+                    while (res.next()) {
+                        result.add(new UsageRecord(
+                            res.getString(1),
+                            res.getString(2),
+                            res.getString(3) != null ? res.getString(3) : "",
+                            res.getInt(4)));
+                    }
+                }
+            }
+            catch (SQLException e) {
+                throw error(e);
+            }
+        }
+        return result;
+    }
+
+    @NotNull
+    @Override
+    public List<UsageRecord> getUsage(@NotNull String date, @Nullable UsageRecord after,
+                                      int limit) throws IOException {
+        List<UsageRecord> result = new ArrayList<>();
+        synchronized (m_readLock) {
+            try {
+                PreparedStatement stmt;
+                if (after == null) {
+                    stmt = m_db.prepareRead(
+                        "SELECT timestamp, feature, lang, count " +
+                            "FROM feature_usage WHERE timestamp <= ? " +
+                            "ORDER BY timestamp, feature, lang LIMIT ?");
+                    stmt.setString(1, date);
+                    stmt.setInt(2, limit);
+                }
+                else {
+                    // NOTE: sqlite 3.6 has no row values, so
+                    // (timestamp, feature, lang) > (?, ?, ?) is expanded.
+                    stmt = m_db.prepareRead(
+                        "SELECT timestamp, feature, lang, count " +
+                            "FROM feature_usage WHERE timestamp <= ? " +
+                            "AND (timestamp > ? OR (timestamp = ? " +
+                            "AND (feature > ? OR (feature = ? AND lang > ?)))) " +
+                            "ORDER BY timestamp, feature, lang LIMIT ?");
+                    stmt.setString(1, date);
+                    stmt.setString(2, after.date());
+                    stmt.setString(3, after.date());
+                    stmt.setString(4, after.feature());
+                    stmt.setString(5, after.feature());
+                    stmt.setString(6, after.lang());
+                    stmt.setInt(7, limit);
+                }
+                try (ResultSet res = stmt.executeQuery()) {
+                    while (res.next()) {
+                        result.add(new UsageRecord(
+                            res.getString(1),
+                            res.getString(2),
+                            res.getString(3) != null ? res.getString(3) : "",
+                            res.getInt(4)));
+                    }
+                }
+            }
+            catch (SQLException e) {
+                throw error(e);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void deleteUsageBefore(@NotNull String date) throws IOException {
+        try {
+            PreparedStatement stmt = m_db.prepare(
+                "DELETE FROM feature_usage WHERE timestamp < ?");
+            stmt.setString(1, date);
+            stmt.executeUpdate();
+        }
+        catch (SQLException e) {
+            throw error(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        synchronized (m_readLock) {
+            try {
+                m_db.close();
+            }
+            catch (SQLException e) {
+                throw error(e);
+            }
+        }
+    }
+}
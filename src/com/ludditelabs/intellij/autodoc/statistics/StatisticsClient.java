@@ -20,13 +20,14 @@ import com.google.gson.Gson;
 import com.google.gson.JsonSyntaxException;
 import com.intellij.util.net.HttpConfigurable;
 import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.NTCredentials;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.EntityEnclosingMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -72,6 +73,18 @@ public class StatisticsClient {
         }
     }
 
+    /**
+     * Not JSON error response.
+     */
+    private static class StatusError extends IOException {
+        private final int status;
+
+        StatusError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
     // Default statistics endpoint.
     // Can be overridden with the "ludditelabs.autodoc.statistics.url" system property.
     private static final String STAT_URL = "https://autodoc.ai/statistics/intellij_plugin";
@@ -89,9 +102,9 @@ public class StatisticsClient {
      * Helper method to create response error.
      */
     private static IOException responseError(EntityEnclosingMethod method) {
-        String type = method.getResponseHeader("content-type").getValue();
-        if (!type.startsWith("application/json")) {
-            return new IOException(String.format("%d %s",
+        Header header = method.getResponseHeader("content-type");
+        if (header == null || !header.getValue().startsWith("application/json")) {
+            return new StatusError(method.getStatusCode(), String.format("%d %s",
                 method.getStatusCode(), method.getStatusText()));
         }
 
@@ -109,7 +122,7 @@ public class StatisticsClient {
             String msg = e.getMessage();
             if (response != null)
                 msg += '\n' + response;
-            return new IOException(msg);
+            return new StatusError(method.getStatusCode(), msg);
         }
         catch (IOException e) {
             return e;
@@ -158,24 +171,50 @@ public class StatisticsClient {
         return client;
     }
 
+    /**
+     * Get HTTP status of the error returned by sendStatistics().
+     *
+     * @param e error.
+     * @return HTTP status or -1 if request is not sent or response
+     *         is not received.
+     */
+    public static int getStatus(@NotNull IOException e) {
+        if (e instanceof JsonError)
+            return ((JsonError)e).status;
+        if (e instanceof StatusError)
+            return ((StatusError)e).status;
+        return -1;
+    }
+
     /**
      * Send given statistics to the autodoc service.
-     * @param json JSON string with statistics data.
+     * @param body gzip compressed JSON with statistics data.
+     * @param key idempotency key: server ignores requests with
+     *            already received key.
      * @return true if data is successfully sent.
      * @throws IOException on service or communication errors.
      */
-    public boolean sendStatistics(String json) throws IOException {
+    public boolean sendStatistics(@NotNull byte[] body, @NotNull String key)
+        throws IOException {
         String url = System.getProperty("ludditelabs.autodoc.statistics.url");
         if (url == null)
             url = STAT_URL;
 
         PostMethod method = new PostMethod(url);
-        method.setRequestEntity(new StringRequestEntity(json, "application/json", "utf-8"));
-        m_client.executeMethod(method);
+        method.setRequestHeader("Content-Encoding", "gzip");
+        method.setRequestHeader("Idempotency-Key", key);
+        method.setRequestEntity(new ByteArrayRequestEntity(body,
+            "application/json; charset=utf-8"));
+        try {
+            m_client.executeMethod(method);
 
-        int status = method.getStatusCode();
-        if (status != 200)
-            throw responseError(method);
-        return true;
+            int status = method.getStatusCode();
+            if (status != 200)
+                throw responseError(method);
+            return true;
+        }
+        finally {
+            method.releaseConnection();
+        }
     }
 }
@@ -16,98 +16,285 @@
 
 package com.ludditelabs.intellij.autodoc.statistics;
 
+import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.sql.PreparedStatement;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.TimeZone;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * This class collects statistics and stores it in sqlite getDatabase.
+ * This class collects statistics and stores it in the StatisticsStore.
+ *
+ * Usage is counted in memory (countUsage() may be called from any thread
+ * and does no I/O), counters are written to the database by flush()
+ * in a single transaction. StatisticsManager calls flush() periodically,
+ * before upload and on shutdown.
+ *
+ * Store is opened lazily by the first flush() or acquireStore(), so
+ * usage counted before that is kept in memory. Idle store may be
+ * closed by closeIfIdle(), it's reopened on the next use.
  */
 public class StatisticsCollector {
     private static final Logger LOG = Logger.getInstance(StatisticsCollector.class);
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+    // Counter key: day, feature and languages.
+    private static class UsageKey {
+        @NotNull final String date;
+        @NotNull final String feature;
+        @NotNull final String lang;
+
+        UsageKey(@NotNull String date, @NotNull String feature, @NotNull String lang) {
+            this.date = date;
+            this.feature = feature;
+            this.lang = lang;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof UsageKey))
+                return false;
+            UsageKey other = (UsageKey)o;
+            return date.equals(other.date) && feature.equals(other.feature)
+                && lang.equals(other.lang);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * date.hashCode() + feature.hashCode()) + lang.hashCode();
+        }
+    }
+
     @NotNull private final SimpleDateFormat m_dateFmt;
-    @Nullable private StatisticsDb m_db = null;
-    private PreparedStatement m_usageStmt = null;
-    private boolean m_active = false;
+    @NotNull private final ConcurrentMap<UsageKey, AtomicInteger> m_counters =
+        new ConcurrentHashMap<>();
+    @NotNull private final Object m_storeLock = new Object();
+    @Nullable private volatile StatisticsStore m_store = null;
+    // False if the store is passed by the caller and must not be closed.
+    private final boolean m_ownStore;
+    // Store can't be opened, usage is not collected in this session.
+    private volatile boolean m_broken = false;
+    private int m_storeUsers = 0;
+    private long m_storeLastUsed = 0;
+    private volatile boolean m_active = false;
+    // Cached date string of the current day, see today().
+    private long m_day = -1;
+    private String m_date = null;
 
     public StatisticsCollector() {
         m_dateFmt = new SimpleDateFormat("yyyy-MM-dd");
         m_dateFmt.setTimeZone(TimeZone.getTimeZone("UTC"));
-        try {
-            setup();
-        }
-        catch (SQLException e) {
-            cleanup();
-            LOG.debug(e);
-        }
+        m_ownStore = true;
     }
 
-    private void setup() throws SQLException {
-        m_db = new StatisticsDb();
-        m_usageStmt = m_db.getConnection().prepareStatement(
-            "INSERT OR REPLACE INTO feature_usage(timestamp, feature, lang, count) " +
-                "VALUES (?, ?, ?, COALESCE((SELECT count + 1 FROM feature_usage " +
-                "where timestamp=? AND feature=? AND lang=?), 1))");
+    /**
+     * Construct collector for the given store.
+     *
+     * @param store statistics store.
+     */
+    StatisticsCollector(@NotNull StatisticsStore store) {
+        m_dateFmt = new SimpleDateFormat("yyyy-MM-dd");
+        m_dateFmt.setTimeZone(TimeZone.getTimeZone("UTC"));
+        m_store = store;
+        m_ownStore = false;
     }
 
-    private void cleanup() {
-        m_usageStmt = null;
-        if (m_db != null) {
-            try {
-                m_db.close();
-            }
-            catch (SQLException e) {
-                LOG.debug(e);
-            }
-            finally {
-                m_db = null;
-            }
+    // Open store selected by -Dludditelabs.autodoc.statistics.store.
+    @NotNull
+    private static StatisticsStore createStore() throws IOException, SQLException {
+        String type = System.getProperty("ludditelabs.autodoc.statistics.store", "sqlite");
+        if (type.equals("mapped")) {
+            return new MappedStatisticsStore(Paths.get(
+                PathManager.getOptionsPath(),
+                "ludditelabs.autodoc.stats.log").toString());
         }
+        return new SqliteStatisticsStore(new StatisticsDb());
     }
 
     public boolean isActive() {
         return m_active;
     }
 
+    /** Enable or disable collecting, not flushed usage is dropped on disable. */
     public void setActive(boolean state) {
         m_active = state;
+        if (!state)
+            m_counters.clear();
+    }
+
+    /** Return true if the store is opened. */
+    public boolean isOpened() {
+        // NOTE: no lock to not wait for opening in the UI thread.
+        return m_store != null;
+    }
+
+    /** Return false if the store can't be opened in this session. */
+    public boolean isAvailable() {
+        return !m_broken;
     }
 
+    /**
+     * Get the store, open it if needed.
+     *
+     * NOTE: store may be opened here, so don't call it in the UI thread.
+     * Each successful call must be paired with releaseStore().
+     *
+     * @return store or null if it can't be opened.
+     */
     @Nullable
-    public StatisticsDb getDatabase() {
-        return m_db;
+    public StatisticsStore acquireStore() {
+        synchronized (m_storeLock) {
+            if (m_store == null && !m_broken) {
+                try {
+                    m_store = createStore();
+                    LOG.debug("Statistics store is opened.");
+                }
+                catch (IOException | SQLException e) {
+                    LOG.debug(e);
+                    m_broken = true;
+                    m_counters.clear();
+                }
+            }
+            if (m_store != null)
+                m_storeUsers++;
+            return m_store;
+        }
     }
 
-    public void countUsage(String feature, String... languages) {
-        if (!isActive() || m_usageStmt == null)
-            return;
+    /** Release the store taken by acquireStore(). */
+    public void releaseStore() {
+        synchronized (m_storeLock) {
+            m_storeUsers--;
+            m_storeLastUsed = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Close the store if it's not used for the given time.
+     *
+     * @param idleMs idle time in milliseconds.
+     */
+    public void closeIfIdle(long idleMs) {
+        synchronized (m_storeLock) {
+            if (m_store != null && m_ownStore && m_storeUsers == 0
+                && System.currentTimeMillis() - m_storeLastUsed >= idleMs) {
+                LOG.debug("Close idle statistics store.");
+                closeStore();
+            }
+        }
+    }
+
+    /** Close the store, it's reopened on the next use. */
+    public void close() {
+        synchronized (m_storeLock) {
+            if (m_store != null && m_ownStore)
+                closeStore();
+        }
+    }
 
+    private void closeStore() {
         try {
-            String date = m_dateFmt.format(new Date());
-            String lang = StringUtil.join(languages, ",");
-
-            m_usageStmt.setString(1, date);
-            m_usageStmt.setString(2, feature);
-            m_usageStmt.setString(3, lang);
-            m_usageStmt.setString(4, date);
-            m_usageStmt.setString(5, feature);
-            m_usageStmt.setString(6, lang);
-            m_usageStmt.executeUpdate();
-        }
-        catch (SQLException e) {
+            m_store.close();
+        }
+        catch (Exception e) {
             LOG.debug(e);
         }
+        finally {
+            m_store = null;
+        }
+    }
+
+    // UTC date of today, formatted once per day.
+    @NotNull
+    private synchronized String today() {
+        long day = System.currentTimeMillis() / DAY_MS;
+        if (day != m_day) {
+            m_day = day;
+            m_date = m_dateFmt.format(new Date());
+        }
+        return m_date;
+    }
+
+    private void add(@NotNull UsageKey key, int count) {
+        AtomicInteger counter = m_counters.get(key);
+        if (counter == null) {
+            AtomicInteger created = new AtomicInteger();
+            counter = m_counters.putIfAbsent(key, created);
+            if (counter == null)
+                counter = created;
+        }
+        counter.addAndGet(count);
+    }
+
+    public void countUsage(String feature, String... languages) {
+        if (!isActive() || m_broken)
+            return;
+        add(new UsageKey(today(), feature, StringUtil.join(languages, ",")), 1);
     }
 
     public void countUsage(@NotNull final VirtualFile file) {
         countUsage("file", file.getExtension());
     }
+
+    /**
+     * Write collected usage to the store.
+     *
+     * All counters are written at once. If it fails then counts are
+     * returned to the counters and written on the next flush.
+     *
+     * NOTE: store may be opened here, so don't call it in the UI thread.
+     */
+    public void flush() {
+        // Take current counts, counters of previous days are not
+        // incremented anymore and may be dropped.
+        String today = today();
+        Map<UsageKey, Integer> counts = new HashMap<>();
+        for (Map.Entry<UsageKey, AtomicInteger> entry : m_counters.entrySet()) {
+            int count = entry.getValue().getAndSet(0);
+            if (count > 0)
+                counts.put(entry.getKey(), count);
+            if (!entry.getKey().date.equals(today))
+                m_counters.remove(entry.getKey(), entry.getValue());
+        }
+        if (counts.isEmpty())
+            return;
+
+        List<UsageRecord> records = new ArrayList<>(counts.size());
+        for (Map.Entry<UsageKey, Integer> entry : counts.entrySet()) {
+            UsageKey key = entry.getKey();
+            records.add(new UsageRecord(key.date, key.feature, key.lang,
+                entry.getValue()));
+        }
+
+        StatisticsStore store = acquireStore();
+        if (store == null)
+            return;
+
+        try {
+            store.addUsage(records);
+            LOG.debug(String.format("Flushed %d usage counters.", records.size()));
+        }
+        catch (IOException e) {
+            LOG.debug(e);
+            if (m_active) {
+                for (Map.Entry<UsageKey, Integer> entry : counts.entrySet())
+                    add(entry.getKey(), entry.getValue());
+            }
+        }
+        finally {
+            releaseStore();
+        }
+    }
 }
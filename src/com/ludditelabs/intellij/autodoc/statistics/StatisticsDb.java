@@ -19,116 +19,291 @@ package com.ludditelabs.intellij.autodoc.statistics;
 import com.intellij.openapi.application.PathManager;
 import com.intellij.openapi.diagnostic.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.sqlite.SQLiteConfig;
 import org.sqlite.SQLiteOpenMode;
 
 import java.nio.file.Paths;
 import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Thin wrapper for the statistics sqlite database.
+ *
+ * Database uses WAL journal and has a writer connection and a lazily
+ * opened reader one, so uploader reads don't wait for collector writes.
+ * Each connection caches its prepared statements, they are closed with
+ * the database.
+ *
+ * Connections are not shared between threads: callers must serialize
+ * writer access and reader access (but not one with the other),
+ * see SqliteStatisticsStore.
+ *
+ * Schema version is stored in the meta table, see MIGRATIONS.
  */
 public class StatisticsDb implements AutoCloseable {
     private static final Logger LOG = Logger.getInstance(StatisticsDb.class);
+
+    // Schema migrations, MIGRATIONS[i] upgrades version i to i + 1.
+    // Append new versions to the end, never change existing ones.
+    private static final String[][] MIGRATIONS = {
+        // 1: initial schema.
+        {
+            "CREATE TABLE IF NOT EXISTS meta(name TEXT UNIQUE, value TEXT)",
+            "CREATE TABLE IF NOT EXISTS feature_usage(timestamp DATE, feature TEXT, lang TEXT, count INTEGER)",
+            "CREATE UNIQUE INDEX IF NOT EXISTS ix_feature_usage ON feature_usage(timestamp, feature, lang)",
+        },
+    };
+
+    /** Current schema version. */
+    public static final int SCHEMA_VERSION = MIGRATIONS.length;
+
+    @NotNull private final String m_path;
     private Connection m_conn = null;
+    private Connection m_reader = null;
+    @NotNull private final Map<String, PreparedStatement> m_statements = new HashMap<>();
+    @NotNull private final Map<String, PreparedStatement> m_readStatements = new HashMap<>();
 
     public StatisticsDb() throws SQLException {
-        m_conn = createConnection();
+        this(Paths.get(PathManager.getOptionsPath(),
+            "ludditelabs.autodoc.stats.db").toString());
+    }
+
+    /**
+     * Open database at the given path.
+     *
+     * @param dbpath database file path.
+     * @throws SQLException if database can't be opened.
+     */
+    public StatisticsDb(@NotNull String dbpath) throws SQLException {
+        m_path = dbpath;
+        try {
+            m_conn = createConnection(false);
+            setupJournal(m_conn);
+            migrate(m_conn);
+        }
+        catch (SQLException e) {
+            LOG.debug(e);
+            close();
+            throw e;
+        }
     }
 
     @NotNull
-    private Connection createConnection() throws SQLException {
+    private Connection createConnection(boolean readonly) throws SQLException {
         try {
             Class.forName("org.sqlite.JDBC");
+        }
+        catch (ClassNotFoundException e) {
+            LOG.debug(e);
+            throw new SQLException(e.getMessage());
+        }
 
-            String dbpath = Paths.get(
-                PathManager.getOptionsPath(),
-                "ludditelabs.autodoc.stats.db").toString();
+        SQLiteConfig cfg = new SQLiteConfig();
 
-            SQLiteConfig cfg = new SQLiteConfig();
+        // Set serialized mode.
+        // http://www.sqlite.org/threadsafe.html
+        cfg.setOpenMode(SQLiteOpenMode.FULLMUTEX);
 
-            // Set serialized mode.
-            // http://www.sqlite.org/threadsafe.html
-            cfg.setOpenMode(SQLiteOpenMode.FULLMUTEX);
+        // Statistics may lose last writes on power loss,
+        // but fsync on each flush is not worth it.
+        cfg.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        cfg.setReadOnly(readonly);
 
-            Connection conn = DriverManager.getConnection(
-                "jdbc:sqlite:" + dbpath,
-                cfg.toProperties());
+        return DriverManager.getConnection("jdbc:sqlite:" + m_path,
+            cfg.toProperties());
+    }
 
-            setupDb(conn);
-            return conn;
-        }
-        catch (ClassNotFoundException e) {
-            LOG.debug(e);
-            close();
-            throw new SQLException(e.getMessage());
+    // Use WAL if the engine supports it (sqlite 3.7+), otherwise
+    // truncate journal which is cheaper than deleting it on each commit.
+    // WAL may be unavailable, for example, on network file systems.
+    private static void setupJournal(@NotNull Connection conn) throws SQLException {
+        String mode = null;
+        try (Statement stmt = conn.createStatement();
+             ResultSet res = stmt.executeQuery("PRAGMA journal_mode=WAL")) {
+            if (res.next())
+                mode = res.getString(1);
         }
-        catch (SQLException e) {
-            LOG.debug(e);
-            close();
-            throw e;
+
+        if (!"wal".equalsIgnoreCase(mode)) {
+            LOG.debug("WAL journal is not supported, use TRUNCATE.");
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("PRAGMA journal_mode=TRUNCATE");
+            }
         }
     }
 
-    private void setupDb(@NotNull Connection conn) throws SQLException {
-        // NOTE: we don't call executeQuery() to reuse stmt.
-        Statement stmt = conn.createStatement();
+    // Schema version or 0 if database is empty.
+    private static int getVersion(@NotNull Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet res = stmt.executeQuery(
+                "SELECT 1 FROM sqlite_master WHERE type='table' AND name='meta'")) {
+                if (!res.next())
+                    return 0;
+            }
 
-        // If has data then table 'meta' exists and we don't need to
-        // create tables.
-        try (ResultSet res = stmt.executeQuery(
-            "SELECT 1 FROM sqlite_master WHERE type='table' AND name='meta'")) {
-            if (res.next())
-                return;
+            try (ResultSet res = stmt.executeQuery(
+                "SELECT value FROM meta WHERE name='version'")) {
+                // Tables exist, so it's at least the first version.
+                if (!res.next())
+                    return 1;
+                try {
+                    return Integer.parseInt(res.getString(1));
+                }
+                catch (NumberFormatException e) {
+                    LOG.debug(e);
+                    return 1;
+                }
+            }
+        }
+    }
+
+    private static void migrate(@NotNull Connection conn) throws SQLException {
+        int version = getVersion(conn);
+        if (version >= SCHEMA_VERSION) {
+            // Database may be created by a newer plugin,
+            // new versions must be backward compatible then.
+            if (version > SCHEMA_VERSION)
+                LOG.debug("Statistics schema is newer: " + version);
+            return;
         }
 
-        stmt.execute("CREATE TABLE IF NOT EXISTS meta(name TEXT UNIQUE, value TEXT)");
-        stmt.execute("CREATE TABLE IF NOT EXISTS feature_usage(timestamp DATE, feature TEXT, lang TEXT, count INTEGER)");
-        stmt.execute("CREATE UNIQUE INDEX IF NOT EXISTS ix_feature_usage ON feature_usage(timestamp, feature, lang)");
-        // Schema version. This may be used later for backward compatibility.
-        stmt.execute("INSERT OR REPLACE INTO meta(name, value) VALUES ('version', '1')");
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for (int i = version; i < SCHEMA_VERSION; i++) {
+                LOG.debug("Migrate statistics schema to " + (i + 1));
+                for (String sql : MIGRATIONS[i])
+                    stmt.execute(sql);
+            }
+            try (PreparedStatement update = conn.prepareStatement(
+                "INSERT OR REPLACE INTO meta(name, value) VALUES ('version', ?)")) {
+                update.setString(1, String.valueOf(SCHEMA_VERSION));
+                update.executeUpdate();
+            }
+            conn.commit();
+        }
+        catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        }
+        finally {
+            conn.setAutoCommit(true);
+        }
     }
 
+    /** Writer connection. */
     @NotNull
     public Connection getConnection() {
         return m_conn;
     }
 
-    public void close() throws SQLException {
-        if (m_conn != null) {
+    /**
+     * Get cached prepared statement of the writer connection.
+     *
+     * NOTE: don't close returned statement, it's closed with the database.
+     *
+     * @param sql statement SQL.
+     * @return prepared statement.
+     * @throws SQLException if SQL is not valid.
+     */
+    @NotNull
+    public PreparedStatement prepare(@NotNull String sql) throws SQLException {
+        return prepare(m_conn, m_statements, sql);
+    }
+
+    /**
+     * Get cached prepared statement of the reader connection.
+     *
+     * NOTE: don't close returned statement, it's closed with the database.
+     *
+     * @param sql query SQL.
+     * @return prepared statement.
+     * @throws SQLException if reader can't be opened or SQL is not valid.
+     */
+    @NotNull
+    public PreparedStatement prepareRead(@NotNull String sql) throws SQLException {
+        synchronized (m_readStatements) {
+            if (m_reader == null)
+                m_reader = createConnection(true);
+        }
+        return prepare(m_reader, m_readStatements, sql);
+    }
+
+    @NotNull
+    private static PreparedStatement prepare(@NotNull Connection conn,
+                                             @NotNull Map<String, PreparedStatement> cache,
+                                             @NotNull String sql) throws SQLException {
+        synchronized (cache) {
+            PreparedStatement stmt = cache.get(sql);
+            if (stmt == null) {
+                stmt = conn.prepareStatement(sql);
+                cache.put(sql, stmt);
+            }
+            return stmt;
+        }
+    }
+
+    private static void closeStatements(@NotNull Map<String, PreparedStatement> cache) {
+        synchronized (cache) {
+            for (PreparedStatement stmt : cache.values()) {
+                try {
+                    stmt.close();
+                }
+                catch (SQLException e) {
+                    LOG.debug(e);
+                }
+            }
+            cache.clear();
+        }
+    }
+
+    private static void closeConnection(@Nullable Connection conn) throws SQLException {
+        if (conn != null) {
             try {
-                m_conn.close();
+                conn.close();
             }
             catch (SQLException e) {
                 LOG.debug(e);
                 throw e;
             }
+        }
+    }
+
+    public void close() throws SQLException {
+        closeStatements(m_statements);
+        closeStatements(m_readStatements);
+        try {
+            closeConnection(m_reader);
+        }
+        finally {
+            m_reader = null;
+            try {
+                closeConnection(m_conn);
+            }
             finally {
                 m_conn = null;
             }
         }
     }
 
-    public boolean execute(String sql) throws SQLException {
-        Statement stmt = getConnection().createStatement();
-        return stmt.execute(sql);
-    }
-
-    public ResultSet executeQuery(String sql) throws SQLException {
-        Statement stmt = getConnection().createStatement();
-        return stmt.executeQuery(sql);
-    }
-
-    public String getMetaValue(String name) throws SQLException {
-        ResultSet r = executeQuery(
-            "SELECT value FROM meta WHERE name='" + name + "'");
-        if (r.next())
-            return r.getString(1);
-        return null;
+    @Nullable
+    public String getMetaValue(@NotNull String name) throws SQLException {
+        PreparedStatement stmt = prepare("SELECT value FROM meta WHERE name=?");
+        stmt.setString(1, name);
+        try (ResultSet res = stmt.executeQuery()) {
+            if (res.next())
+                return res.getString(1);
+            return null;
+        }
     }
 
-    public void setMetaValue(String name, String value) throws SQLException {
-        execute("INSERT OR REPLACE INTO meta(name, value) VALUES ('" +
-            name + "', '" + value +"')");
+    public void setMetaValue(@NotNull String name, @NotNull String value)
+        throws SQLException {
+        PreparedStatement stmt = prepare(
+            "INSERT OR REPLACE INTO meta(name, value) VALUES (?, ?)");
+        stmt.setString(1, name);
+        stmt.setString(2, value);
+        stmt.executeUpdate();
     }
 }
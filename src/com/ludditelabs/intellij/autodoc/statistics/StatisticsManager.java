@@ -16,12 +16,14 @@
 
 package com.ludditelabs.intellij.autodoc.statistics;
 
+import com.intellij.openapi.Disposable;
 import com.intellij.openapi.actionSystem.ActionManager;
 import com.intellij.openapi.actionSystem.AnAction;
 import com.intellij.openapi.actionSystem.AnActionEvent;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.StatusBar;
 import com.intellij.openapi.wm.WindowManager;
@@ -30,15 +32,128 @@ import com.ludditelabs.intellij.autodoc.config.PluginSettings;
 import com.ludditelabs.intellij.common.DateUtils;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class StatisticsManager {
+
+/**
+ * Statistics subsystem entry point.
+ *
+ * Nothing is opened on service creation: statistics store is opened in
+ * a background thread when the first usage is counted, and closed when
+ * it's idle. See StatisticsCollector.
+ *
+ * Upload is checked 5 minutes after start and then every hour, so long
+ * sessions upload daily too. Failed uploads stay in the outbox and are
+ * retried with exponential backoff, see StatisticsOutbox.
+ */
+public class StatisticsManager implements Disposable {
+    private static final Logger LOG = Logger.getInstance(StatisticsManager.class);
     private final StatisticsCollector m_collector;
+    private final StatisticsOutbox m_outbox;
     private final Alarm m_alarm;
+    private final Alarm m_flushAlarm;
+    private final Alarm m_retryAlarm;
+    private final AtomicBoolean m_openRequested = new AtomicBoolean(false);
+    private final Object m_uploadLock = new Object();
+    // Outbox may have batches left by previous sessions.
+    private volatile boolean m_checkOutbox = true;
+    private int m_retries = 0;
     private static final int DELAY_IN_MINS = 5;
+    private static final int CHECK_PERIOD_IN_MINS = 60;
+    private static final int MAX_RETRIES = 8;
+    private static final long RETRY_BASE_MS = 60 * 1000;
+    private static final long RETRY_MAX_MS = 60 * 60 * 1000;
 
     public StatisticsManager() {
         m_collector = new StatisticsCollector();
+        m_outbox = new StatisticsOutbox();
         m_alarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, ApplicationManager.getApplication());
+        m_flushAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+        m_retryAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    }
+
+    // Usage is counted in memory and written to db periodically.
+    // Period may be set with -Dludditelabs.autodoc.statistics.flush=SEC.
+    // Store is closed if it's not used for
+    // -Dludditelabs.autodoc.statistics.idle=SEC.
+    private void scheduleFlush() {
+        int delay = Integer.getInteger("ludditelabs.autodoc.statistics.flush", 60);
+        final int idle = Integer.getInteger("ludditelabs.autodoc.statistics.idle", 300);
+        m_flushAlarm.addRequest(new Runnable() {
+            @Override
+            public void run() {
+                m_collector.flush();
+                m_collector.closeIfIdle(Math.max(0, idle) * 1000L);
+                scheduleFlush();
+            }
+        }, Math.max(1, delay) * 1000);
+    }
+
+    // Open store in a background thread on the first usage,
+    // usage is kept in memory until then.
+    private void requestOpen() {
+        if (m_collector.isActive() && !m_collector.isOpened()
+            && m_openRequested.compareAndSet(false, true)) {
+            m_flushAlarm.addRequest(new Runnable() {
+                @Override
+                public void run() {
+                    m_collector.flush();
+                }
+            }, 0);
+        }
+    }
+
+    // Flush collected usage and upload statistics.
+    // If collect is false then only the outbox is sent.
+    @NotNull
+    private Runnable createUploader(final boolean collect) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                if (!m_collector.isActive())
+                    return;
+
+                synchronized (m_uploadLock) {
+                    StatisticsStore store = null;
+                    if (collect) {
+                        m_collector.flush();
+                        store = m_collector.acquireStore();
+                    }
+                    try {
+                        new StatisticsUploader(store, m_outbox).run();
+                    }
+                    finally {
+                        if (store != null)
+                            m_collector.releaseStore();
+                    }
+                    m_checkOutbox = false;
+                    scheduleRetry();
+                }
+            }
+        };
+    }
+
+    // Retry failed upload with exponential backoff.
+    // Half of the delay is random, so IDEs which failed at the same time
+    // (like on server outage) don't retry at once.
+    private void scheduleRetry() {
+        if (m_outbox.isEmpty()) {
+            m_retries = 0;
+            return;
+        }
+
+        if (m_retries >= MAX_RETRIES) {
+            LOG.debug("Statistics upload is failed, retry on next upload.");
+            m_retries = 0;
+            return;
+        }
+
+        long delay = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << m_retries);
+        delay = delay / 2 + (long)(Math.random() * (delay / 2));
+        m_retries++;
+        LOG.debug(String.format("Retry statistics upload in %d s.", delay / 1000));
+        m_retryAlarm.cancelAllRequests();
+        m_retryAlarm.addRequest(createUploader(false), (int)delay);
     }
 
     // Add menu item to manually force stats uploading
@@ -58,7 +173,7 @@ public class StatisticsManager {
                         statusBar.setInfo("Upload autodoc statistics - skipped.");
                         return;
                     }
-                    new StatisticsUploader(m_collector.getDatabase()).run();
+                    createUploader(true).run();
                     statusBar.setInfo("Upload autodoc statistics - finished!");
                 }
             };
@@ -87,17 +202,12 @@ public class StatisticsManager {
         if (now <= timestamp)
             return false;
 
-        // If db is null then something is wrong so we don't need to
-        // put task in a separate thread, so just quit.
-        final StatisticsDb db = m_collector.getDatabase();
-        return db != null;
+        // If store can't be opened then something is wrong so we don't
+        // need to put task in a separate thread, so just quit.
+        return m_collector.isAvailable();
     }
 
-    private void bgUpload() {
-        // If stats collecting is disabled then do nothing in this session.
-        if (!canUpload())
-            return;
-
+    private void bgUpload(int delayInMins) {
         m_alarm.addRequest(new Runnable() {
             @Override
             public void run() {
@@ -105,18 +215,28 @@ public class StatisticsManager {
                 // our methods are not thread safe.
                 // After delay we check again if we can collect stats,
                 // if so then run upload in a background thread.
-                if (canUpload()) {
+                boolean collect = canUpload();
+                if (collect || (m_checkOutbox && m_collector.isActive())) {
                     ApplicationManager.getApplication().executeOnPooledThread(
-                        new StatisticsUploader(m_collector.getDatabase()));
+                        createUploader(collect));
                 }
+                bgUpload(CHECK_PERIOD_IN_MINS);
             }
-        }, DELAY_IN_MINS * 60 * 1000);
+        }, delayInMins * 60 * 1000);
     }
 
     private void doInit() {
         m_collector.setActive(PluginSettings.getInstance().canCollectStatistics());
         addStatisticsUploadAction();
-        bgUpload();
+        scheduleFlush();
+        bgUpload(DELAY_IN_MINS);
+    }
+
+    @Override
+    public void dispose() {
+        // Write usage collected in this session.
+        m_collector.flush();
+        m_collector.close();
     }
 
     public static StatisticsManager getInstance() {
@@ -124,11 +244,24 @@ public class StatisticsManager {
     }
 
     public static void countUsage(@NotNull final VirtualFile file) {
-        getInstance().m_collector.countUsage(file);
+        StatisticsManager manager = getInstance();
+        manager.m_collector.countUsage(file);
+        manager.requestOpen();
     }
 
     public static void setActive(boolean state) {
-        getInstance().m_collector.setActive(state);
+        final StatisticsManager manager = getInstance();
+        manager.m_collector.setActive(state);
+
+        // Don't send pending stats if the user disabled collecting.
+        if (!state) {
+            ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+                @Override
+                public void run() {
+                    manager.m_outbox.clear();
+                }
+            });
+        }
     }
 
     public static void init() {
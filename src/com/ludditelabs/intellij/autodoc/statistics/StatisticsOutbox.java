@@ -0,0 +1,240 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Persistent queue of statistics upload requests.
+ *
+ * Uploader puts request bodies (gzip JSON, see StatisticsUploader.Payload)
+ * to the outbox and removes usage from the store, then the outbox is sent
+ * batch by batch, oldest first. Failed batches stay on disk and are sent
+ * on the next attempt, even after IDE restart.
+ *
+ * Each batch is a file:
+ * <pre>[created]-[attempts]-[key].json.gz</pre>
+ * where key is SHA-1 of the body. It's sent as "Idempotency-Key" header,
+ * so the server may drop a batch which is received twice (for example
+ * if the response is lost).
+ *
+ * Batch is dropped if the server rejects it, after MAX_ATTEMPTS failed
+ * responses or if it's older than MAX_AGE_DAYS. Connection failures
+ * are not counted as attempts.
+ */
+public class StatisticsOutbox {
+    private static final Logger LOG = Logger.getInstance(StatisticsOutbox.class);
+    private static final String SUFFIX = ".json.gz";
+    private static final int MAX_ATTEMPTS = 20;
+    private static final int MAX_AGE_DAYS = 60;
+    private static final long DAY_MS = 24 * 60 * 60 * 1000;
+
+    // Pending batch file.
+    private static class Batch {
+        @NotNull final File file;
+        final long created;
+        final int attempts;
+        @NotNull final String key;
+
+        Batch(@NotNull File file, long created, int attempts, @NotNull String key) {
+            this.file = file;
+            this.created = created;
+            this.attempts = attempts;
+            this.key = key;
+        }
+
+        // Parse batch file name or return null if it's not a batch.
+        @Nullable
+        static Batch parse(@NotNull File file) {
+            String name = file.getName();
+            if (!name.endsWith(SUFFIX))
+                return null;
+            String[] parts = name.substring(0, name.length() - SUFFIX.length()).split("-");
+            if (parts.length != 3)
+                return null;
+            try {
+                return new Batch(file, Long.parseLong(parts[0]),
+                    Integer.parseInt(parts[1]), parts[2]);
+            }
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    @NotNull private final File m_dir;
+
+    public StatisticsOutbox() {
+        this(Paths.get(PathManager.getOptionsPath(),
+            "ludditelabs.autodoc.outbox").toFile());
+    }
+
+    /**
+     * Construct outbox in the given directory.
+     *
+     * @param dir directory to keep batches in.
+     */
+    public StatisticsOutbox(@NotNull File dir) {
+        m_dir = dir;
+    }
+
+    @NotNull
+    private static String fileName(long created, int attempts, @NotNull String key) {
+        return String.format("%d-%d-%s%s", created, attempts, key, SUFFIX);
+    }
+
+    // SHA-1 of the body.
+    @NotNull
+    static String keyOf(@NotNull byte[] body) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest(body))
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Pending batches, oldest first.
+    @NotNull
+    private List<Batch> batches() {
+        List<Batch> result = new ArrayList<>();
+        File[] files = m_dir.listFiles();
+        if (files == null)
+            return result;
+
+        for (File file : files) {
+            Batch batch = Batch.parse(file);
+            if (batch != null)
+                result.add(batch);
+        }
+        Collections.sort(result, new Comparator<Batch>() {
+            @Override
+            public int compare(Batch a, Batch b) {
+                return Long.compare(a.created, b.created);
+            }
+        });
+        return result;
+    }
+
+    /** Return true if there are no pending batches. */
+    public synchronized boolean isEmpty() {
+        return batches().isEmpty();
+    }
+
+    /**
+     * Put request body to the outbox.
+     *
+     * File is written under a temporary name and then renamed, so
+     * partially written batches are never sent. Body which is already
+     * in the outbox is not added twice.
+     *
+     * @param body gzip compressed JSON.
+     * @throws IOException if batch can't be saved.
+     */
+    public synchronized void add(@NotNull byte[] body) throws IOException {
+        String key = keyOf(body);
+        for (Batch batch : batches()) {
+            if (batch.key.equals(key))
+                return;
+        }
+
+        File tmp = new File(m_dir, key + ".tmp");
+        FileUtil.writeToFile(tmp, body);
+        File file = new File(m_dir, fileName(System.currentTimeMillis(), 0, key));
+        if (!tmp.renameTo(file)) {
+            FileUtil.delete(tmp);
+            throw new IOException("Can't save statistics batch " + file);
+        }
+        LOG.debug(String.format("Statistics batch %s is queued, %d bytes.", key, body.length));
+    }
+
+    /**
+     * Send pending batches, oldest first.
+     *
+     * Stops on the first failed batch to keep the order.
+     *
+     * @param client statistics service client.
+     * @throws IOException if a batch is not sent (it stays in the outbox).
+     */
+    public synchronized void send(@NotNull StatisticsClient client) throws IOException {
+        long now = System.currentTimeMillis();
+        for (Batch batch : batches()) {
+            if (now - batch.created > MAX_AGE_DAYS * DAY_MS) {
+                LOG.debug("Drop expired statistics batch " + batch.key);
+                FileUtil.delete(batch.file);
+                continue;
+            }
+
+            try {
+                client.sendStatistics(FileUtil.loadFileBytes(batch.file), batch.key);
+                FileUtil.delete(batch.file);
+                LOG.debug("Statistics batch is sent: " + batch.key);
+            }
+            catch (IOException e) {
+                onFailure(batch, StatisticsClient.getStatus(e));
+                throw e;
+            }
+        }
+    }
+
+    // Count the failed attempt or drop the batch if it can't be sent.
+    private static void onFailure(@NotNull Batch batch, int status) {
+        // Connection failure, server didn't see the batch.
+        if (status < 0)
+            return;
+
+        // Client error, the batch will be rejected again.
+        boolean rejected = status >= 400 && status < 500
+            && status != 408 && status != 429;
+        int attempts = batch.attempts + 1;
+        if (rejected || attempts >= MAX_ATTEMPTS) {
+            LOG.debug(String.format("Drop statistics batch %s, status %d, attempts %d.",
+                batch.key, status, attempts));
+            FileUtil.delete(batch.file);
+            return;
+        }
+
+        File file = new File(batch.file.getParentFile(),
+            fileName(batch.created, attempts, batch.key));
+        if (!batch.file.renameTo(file))
+            LOG.debug("Can't update statistics batch " + batch.file);
+    }
+
+    /** Remove all pending batches. */
+    public synchronized void clear() {
+        for (Batch batch : batches())
+            FileUtil.delete(batch.file);
+    }
+}
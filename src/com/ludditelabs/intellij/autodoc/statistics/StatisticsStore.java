@@ -0,0 +1,104 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage of the collected statistics.
+ *
+ * Keeps daily usage counters and a few meta values (like last upload
+ * date). Implementations must be thread safe.
+ *
+ * Backend is selected with
+ * <pre>-Dludditelabs.autodoc.statistics.store=sqlite|mapped</pre>,
+ * see SqliteStatisticsStore and MappedStatisticsStore.
+ */
+public interface StatisticsStore extends AutoCloseable {
+    /**
+     * Get meta value.
+     *
+     * @param name value name.
+     * @return value or null if it's not set.
+     * @throws IOException on storage errors.
+     */
+    @Nullable
+    String getMetaValue(@NotNull String name) throws IOException;
+
+    /**
+     * Set meta value.
+     *
+     * @param name value name.
+     * @param value new value.
+     * @throws IOException on storage errors.
+     */
+    void setMetaValue(@NotNull String name, @NotNull String value) throws IOException;
+
+    /**
+     * Add usage counts.
+     *
+     * Counts of the existing records are incremented. All records are
+     * added atomically: either all of them or none.
+     *
+     * @param records usage to add.
+     * @throws IOException on storage errors.
+     */
+    void addUsage(@NotNull Collection<UsageRecord> records) throws IOException;
+
+    /**
+     * Get usage up to the given date.
+     *
+     * @param date last date (inclusive) in the "yyyy-MM-dd" format.
+     * @return usage records.
+     * @throws IOException on storage errors.
+     */
+    @NotNull
+    List<UsageRecord> getUsage(@NotNull String date) throws IOException;
+
+    /**
+     * Get a page of usage up to the given date.
+     *
+     * Records are ordered by date, feature and languages, so pages may
+     * be read one by one without keeping a cursor open.
+     *
+     * @param date last date (inclusive) in the "yyyy-MM-dd" format.
+     * @param after last record of the previous page or null to get the
+     *              first page.
+     * @param limit max number of records.
+     * @return usage records, less than limit if it's the last page.
+     * @throws IOException on storage errors.
+     */
+    @NotNull
+    List<UsageRecord> getUsage(@NotNull String date, @Nullable UsageRecord after,
+                               int limit) throws IOException;
+
+    /**
+     * Remove usage before the given date.
+     *
+     * @param date first date (exclusive) to keep.
+     * @throws IOException on storage errors.
+     */
+    void deleteUsageBefore(@NotNull String date) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
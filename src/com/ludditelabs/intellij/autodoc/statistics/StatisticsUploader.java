@@ -16,25 +16,22 @@
 
 package com.ludditelabs.intellij.autodoc.statistics;
 
-import com.google.gson.Gson;
-import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonWriter;
 import com.intellij.openapi.application.ApplicationInfo;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.SystemInfo;
-import com.intellij.util.containers.ContainerUtil;
 import com.ludditelabs.intellij.autodoc.config.PluginSettings;
 import com.ludditelabs.intellij.common.DateUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.IOException;
+import java.io.*;
 import java.net.ConnectException;
-import java.sql.ResultSet;
-import java.sql.SQLException;
 import java.text.ParseException;
-import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * This class uploads cached statistics to remote server.
@@ -42,59 +39,152 @@ import java.util.Date;
  * How it works:
  *
  * At first, it checks last upload date and if it's not set or less than
- * current date then it gets list of stored daily stats. Then it sends
- * retrieved list to remote server in JSON format.
+ * current date then it reads stored daily stats page by page, puts them
+ * to the outbox as gzip compressed JSON and removes them from the store.
+ * Then pending outbox batches are sent to remote server.
+ *
+ * Records are written to the JSON as they are read, request body is
+ * limited by <pre>-Dludditelabs.autodoc.statistics.chunk=KB</pre> of
+ * JSON (default is 1024), bigger stats are sent in several requests.
+ * So upload memory doesn't depend on amount of stored stats.
+ *
+ * @see StatisticsOutbox
  */
 public class StatisticsUploader implements Runnable {
     private static final Logger LOG = Logger.getInstance(StatisticsUploader.class);
-    @Nullable private final StatisticsDb m_db;
-
-    private class DailyUsage {
-        @NotNull private final String date;
-        @NotNull private final String feature;
-        private final String lang;
-        private final int count;
-
-        DailyUsage(@NotNull String date, @NotNull String feature, String lang, int count) {
-            this.date = date;
-            this.feature = feature;
-            this.lang = lang;
-            this.count = count;
+    private static final int PAGE_SIZE = 500;
+    @Nullable private final StatisticsStore m_store;
+    @NotNull private final StatisticsOutbox m_outbox;
+
+    // Environment info sent with the usage.
+    static class Stat {
+        private final String osName;
+        private final String osArch;
+        private final String osVersion;
+        private final String ideName;
+        private final String ideVersion;
+        private final String uuid;
+
+        Stat(String osName, String osArch, String osVersion,
+             String ideName, String ideVersion, String uuid) {
+            this.osName = osName;
+            this.osArch = osArch;
+            this.osVersion = osVersion;
+            this.ideName = ideName;
+            this.ideVersion = ideVersion;
+            this.uuid = uuid;
+        }
+
+        // Stats of the current environment.
+        static Stat create() {
+            ApplicationInfo info = ApplicationInfo.getInstance();
+            return new Stat(
+                SystemInfo.OS_NAME.toLowerCase(),
+                SystemInfo.OS_ARCH.toLowerCase(),
+                SystemInfo.OS_VERSION.toLowerCase(),
+                info.getVersionName().toLowerCase(),
+                info.getFullVersion(),
+                Utils.getUuid());
         }
+
     }
 
-    private class Stat {
-        @SerializedName("os_name") private final String osName;
-        @SerializedName("os_arch") private final String osArch;
-        @SerializedName("os_version") private final String osVersion;
-        @SerializedName("ide_name") private final String ideName;
-        @SerializedName("ide_version") private final String ideVersion;
-        @SerializedName("uuid") private final String uuid;
-        @NotNull private final Collection<DailyUsage> usage = ContainerUtil.newArrayList();
+    // Counts chars written to the payload JSON.
+    private static class CountingWriter extends FilterWriter {
+        long count = 0;
 
-        Stat() {
-            osName = SystemInfo.OS_NAME.toLowerCase();
-            osArch = SystemInfo.OS_ARCH.toLowerCase();
-            osVersion = SystemInfo.OS_VERSION.toLowerCase();
+        CountingWriter(@NotNull Writer out) {
+            super(out);
+        }
 
-            ApplicationInfo info = ApplicationInfo.getInstance();
-            ideName = info.getVersionName().toLowerCase();
-            ideVersion = info.getFullVersion();
-            uuid = Utils.getUuid();
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            count++;
         }
 
-        void addUsage(DailyUsage info) {
-            usage.add(info);
+        @Override
+        public void write(@NotNull char[] buf, int off, int len) throws IOException {
+            super.write(buf, off, len);
+            count += len;
         }
 
-        boolean isEmpty() {
-            return usage.isEmpty();
+        @Override
+        public void write(@NotNull String str, int off, int len) throws IOException {
+            super.write(str, off, len);
+            count += len;
         }
     }
 
+    /**
+     * Request body: gzip compressed JSON
+     * <pre>
+     * {"os_name": ..., "os_arch": ..., "os_version": ..., "ide_name": ...,
+     *  "ide_version": ..., "uuid": ...,
+     *  "usage": [{"date": ..., "feature": ..., "lang": ..., "count": N}, ...]}
+     * </pre>
+     */
+    static class Payload {
+        @NotNull private final ByteArrayOutputStream m_bytes = new ByteArrayOutputStream();
+        @NotNull private final CountingWriter m_writer;
+        @NotNull private final JsonWriter m_json;
+        private int m_count = 0;
+
+        Payload(@NotNull Stat stat) throws IOException {
+            m_writer = new CountingWriter(new OutputStreamWriter(
+                new GZIPOutputStream(m_bytes), "UTF-8"));
+            m_json = new JsonWriter(m_writer);
+            m_json.beginObject();
+            m_json.name("os_name").value(stat.osName);
+            m_json.name("os_arch").value(stat.osArch);
+            m_json.name("os_version").value(stat.osVersion);
+            m_json.name("ide_name").value(stat.ideName);
+            m_json.name("ide_version").value(stat.ideVersion);
+            m_json.name("uuid").value(stat.uuid);
+            m_json.name("usage").beginArray();
+        }
+
+        void add(@NotNull UsageRecord record) throws IOException {
+            m_json.beginObject();
+            m_json.name("date").value(record.date());
+            m_json.name("feature").value(record.feature());
+            m_json.name("lang").value(record.lang());
+            m_json.name("count").value(record.count());
+            m_json.endObject();
+            m_count++;
+        }
+
+        // Number of added records.
+        int count() {
+            return m_count;
+        }
+
+        // Size of not compressed JSON.
+        long size() {
+            return m_writer.count;
+        }
 
-    public StatisticsUploader(@Nullable StatisticsDb db) {
-        m_db = db;
+        // Finish JSON and return compressed body.
+        @NotNull
+        byte[] finish() throws IOException {
+            m_json.endArray();
+            m_json.endObject();
+            m_json.close();
+            return m_bytes.toByteArray();
+        }
+    }
+
+
+    /**
+     * Construct uploader.
+     *
+     * @param store statistics store or null to only send the outbox.
+     * @param outbox queue of upload requests.
+     */
+    public StatisticsUploader(@Nullable StatisticsStore store,
+                              @NotNull StatisticsOutbox outbox) {
+        m_store = store;
+        m_outbox = outbox;
     }
 
     /**
@@ -103,15 +193,15 @@ public class StatisticsUploader implements Runnable {
      *
      * @return true if statistics can be uploaded.
      */
-    private boolean canUpload() throws SQLException {
-        if (m_db == null) {
-            LOG.debug("Database is NULL!");
+    private boolean canUpload() throws IOException {
+        if (m_store == null) {
+            LOG.debug("Store is NULL!");
             return false;
         }
 
         boolean need = false;
         boolean update_date = false;
-        String val = m_db.getMetaValue("last_upload");
+        String val = m_store.getMetaValue("last_upload");
 
         // If last_upload is not set then most probably DB is just created.
         // Set to current date to prevent uploading today.
@@ -143,12 +233,12 @@ public class StatisticsUploader implements Runnable {
     /**
      * Set upload timestamp to current date.
      */
-    private void updateSendTime() throws SQLException {
+    private void updateSendTime() throws IOException {
         Date now = DateUtils.utcDateNow();
         final long timestamp = now.getTime();
         String val = DateUtils.toDateString(now);
         LOG.debug("Set last upload date to: " + val);
-        m_db.setMetaValue("last_upload", val);
+        m_store.setMetaValue("last_upload", val);
 
         // See StatisticsManager.canUpload()
         // NOTE: we update value in the UI thread since Statistics API
@@ -167,89 +257,103 @@ public class StatisticsUploader implements Runnable {
      * We limit amount of data on each run because if there was no connection
      * to send statistics then db will grow up.
      *
-     * @throws SQLException if something wrong with DB or SQL query.
+     * @throws IOException on storage errors.
      */
-    private void dropOldStat() throws SQLException {
-        Date dt = DateUtils.addDays(DateUtils.utcDateNow(), -60);
-        String val = DateUtils.toDateString(dt);
-        String sql = String.format(
-            "DELETE FROM feature_usage WHERE timestamp <= '%s'", val);
-        m_db.execute(sql);
+    private void dropOldStat() throws IOException {
+        // Usage of 60 days ago and before.
+        Date dt = DateUtils.addDays(DateUtils.utcDateNow(), -59);
+        m_store.deleteUsageBefore(DateUtils.toDateString(dt));
     }
 
     /**
      * Remove all dta before today.
      *
-     * This method is similar to dropOldStat() but called after successful
-     * uploading.
+     * This method is similar to dropOldStat() but called after usage
+     * is moved to the outbox.
      *
      * dropOldStat() is called before sending to keep only last X days of stat.
      *
      * @param now current date string.
-     * @throws SQLException if something wrong with DB or SQL query.
+     * @throws IOException on storage errors.
      */
-    private void dropSentStat(String now) throws SQLException {
-        String sql = String.format(
-            "DELETE FROM feature_usage WHERE timestamp < '%s'", now);
-        m_db.execute(sql);
+    private void dropSentStat(String now) throws IOException {
+        m_store.deleteUsageBefore(now);
+    }
+
+    // Max size of not compressed JSON in a single request.
+    private static long chunkLimit() {
+        return Math.max(1, Integer.getInteger(
+            "ludditelabs.autodoc.statistics.chunk", 1024)) * 1024L;
     }
 
     /**
-     * Send usage statistics to the remove server.
+     * Move stored usage of the past days to the outbox.
      *
-     * @param usage usage statistics.
-     * @return true if the data is sent.
-     * @throws IOException on connection errors.
+     * @throws IOException on storage errors.
      */
-    private boolean send(Stat usage) throws IOException {
-        Gson gson = new Gson();
-        String json = gson.toJson(usage);
-
-        StatisticsClient client = new StatisticsClient();
-        boolean ok = client.sendStatistics(json);
-        if (ok)
-            LOG.debug("Statistics uploaded successfully.");
-        return ok;
-    }
+    private void enqueue() throws IOException {
+        Date today = DateUtils.utcDateNow();
+        String now = DateUtils.toDateString(today);
+        // Today's usage is still growing, so only finished days are sent.
+        // This matches dropSentStat(now) which keeps today's rows, otherwise
+        // partial counters are sent again next time and counted twice.
+        String yesterday = DateUtils.toDateString(DateUtils.addDays(today, -1));
+        Stat stat = Stat.create();
+        long limit = chunkLimit();
 
-    private void doRun() throws SQLException, IOException {
-        String now = DateUtils.toDateString(DateUtils.utcDateNow());
-        String sql = String.format(
-            "SELECT timestamp, feature, lang, count " +
-                "FROM feature_usage WHERE timestamp <= '%s'", now);
-
-        Stat stat = new Stat();
-        ResultSet res = m_db.executeQuery(sql);
-        while (res.next()) {
-            stat.addUsage(new DailyUsage(
-                res.getString(1),
-                res.getString(2),
-                res.getString(3),
-                res.getInt(4)));
+        int chunks = 0;
+        Payload payload = null;
+        UsageRecord last = null;
+        List<UsageRecord> page;
+        do {
+            page = m_store.getUsage(yesterday, last, PAGE_SIZE);
+            for (UsageRecord record : page) {
+                if (payload != null && payload.size() >= limit) {
+                    m_outbox.add(payload.finish());
+                    chunks++;
+                    payload = null;
+                }
+                if (payload == null)
+                    payload = new Payload(stat);
+                payload.add(record);
+                last = record;
+            }
+        } while (page.size() == PAGE_SIZE);
+
+        if (payload != null) {
+            m_outbox.add(payload.finish());
+            chunks++;
         }
 
-        if (stat.isEmpty()) {
+        if (chunks == 0) {
             LOG.debug("No statistics collected, nothing to send yet.");
             return;
         }
 
-        if (send(stat)) {
-            updateSendTime();
-            dropSentStat(now);
-        }
+        // Usage is in the outbox now.
+        updateSendTime();
+        dropSentStat(now);
     }
 
     @Override
     public void run() {
         try {
-            if (!canUpload()) {
+            if (m_store != null && canUpload()) {
+                dropOldStat();
+                enqueue();
+            }
+            else {
                 LOG.debug("Statistics uploading is not required.");
-                return;
             }
-            dropOldStat();
-            doRun();
         }
-        catch (SQLException | IOException e) {
+        catch (IOException e) {
+            LOG.debug(e);
+        }
+
+        try {
+            m_outbox.send(new StatisticsClient());
+        }
+        catch (IOException e) {
             // Don't print stack trace for failed connections.
             if (e instanceof ConnectException)
                 LOG.debug("Uploading failed: " + e.getMessage());
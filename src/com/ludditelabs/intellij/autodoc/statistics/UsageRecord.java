@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Daily usage counter of a feature.
+ */
+public class UsageRecord {
+    @NotNull private final String m_date;
+    @NotNull private final String m_feature;
+    @NotNull private final String m_lang;
+    private final int m_count;
+
+    /**
+     * Construct record.
+     *
+     * @param date UTC date in the "yyyy-MM-dd" format.
+     * @param feature feature name.
+     * @param lang comma separated languages.
+     * @param count usage count.
+     */
+    public UsageRecord(@NotNull String date, @NotNull String feature,
+                       @NotNull String lang, int count) {
+        m_date = date;
+        m_feature = feature;
+        m_lang = lang;
+        m_count = count;
+    }
+
+    @NotNull
+    public String date() {
+        return m_date;
+    }
+
+    @NotNull
+    public String feature() {
+        return m_feature;
+    }
+
+    @NotNull
+    public String lang() {
+        return m_lang;
+    }
+
+    public int count() {
+        return m_count;
+    }
+}
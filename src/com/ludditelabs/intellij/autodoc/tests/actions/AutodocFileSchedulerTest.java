@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.ludditelabs.intellij.autodoc.bundle.PluginBundleManager;
+import com.ludditelabs.intellij.autodoc.config.PluginSettings;
+
+/**
+ * Run on save.
+ */
+public class AutodocFileSchedulerTest extends LightPlatformTestCase {
+    private boolean m_runOnSave;
+    private boolean m_platformSupported;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        m_runOnSave = PluginSettings.getInstance().runOnSave();
+        m_platformSupported = PluginBundleManager.getInstance().isPlatformSupported();
+        PluginSettings.getInstance().setRunOnSave(true);
+        PluginBundleManager.getInstance().setPlatformSupported(true);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            PluginSettings.getInstance().setRunOnSave(m_runOnSave);
+            PluginBundleManager.getInstance().setPlatformSupported(m_platformSupported);
+        }
+        finally {
+            super.tearDown();
+        }
+    }
+
+    // Save schedules a run without any manual run in the project.
+    public void testSaveSchedulesRun() {
+        final VirtualFile file = createFile("module.py", "x = 1\n").getVirtualFile();
+        final Document document = FileDocumentManager.getInstance().getDocument(file);
+        assertNotNull(document);
+
+        ApplicationManager.getApplication().runWriteAction(new Runnable() {
+            @Override
+            public void run() {
+                document.insertString(0, "y = 2\n");
+                FileDocumentManager.getInstance().saveDocument(document);
+            }
+        });
+
+        AutodocFileScheduler scheduler = AutodocFileScheduler.getInstance(getProject());
+        try {
+            assertTrue(scheduler.isScheduled(file));
+        }
+        finally {
+            scheduler.cancel(file);
+        }
+    }
+}
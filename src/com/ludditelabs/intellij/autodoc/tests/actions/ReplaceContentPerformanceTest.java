@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.actions;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Time budgets of applying autodoc result to the document.
+ *
+ * Each 10th line gets a docstring, like autodoc does for functions
+ * without docs.
+ */
+public class ReplaceContentPerformanceTest extends LightPlatformTestCase {
+    @NotNull
+    private static String source(int lines, boolean fixed) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i += 10) {
+            sb.append("def func_").append(i).append("(arg):\n");
+            if (fixed)
+                sb.append("    \"\"\"Process arguments.\"\"\"\n");
+            for (int j = 1; j < 10; j++)
+                sb.append("    value = arg + ").append(j).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void doTest(int lines, int expectedMs) {
+        final String original = source(lines, false);
+        final String fixed = source(lines, true);
+        final Document[] document = new Document[1];
+
+        // Measure hunks apply, not the whole text replace.
+        assertFalse(DocumentPatch.create(original, fixed, 0).isFullReplace());
+
+        PlatformTestUtil.startPerformanceTest(
+            "replaceContent " + lines + " lines", expectedMs,
+            new ThrowableRunnable() {
+                @Override
+                public void run() throws Throwable {
+                    AutodocFileTask task = new AutodocFileTask(getProject(),
+                        document[0]);
+                    task.replaceContent(fixed);
+
+                    // Document is changed in invokeLater().
+                    UIUtil.dispatchAllInvocationEvents();
+                }
+            })
+            .setup(new ThrowableRunnable() {
+                @Override
+                public void run() throws Throwable {
+                    document[0] = EditorFactory.getInstance().createDocument(original);
+                }
+            })
+            .cpuBound()
+            .assertTiming();
+
+        assertEquals(fixed, document[0].getText());
+    }
+
+    public void testReplace1k() {
+        doTest(1000, 100);
+    }
+
+    public void testReplace10k() {
+        doTest(10000, 500);
+    }
+
+    public void testReplace50k() {
+        doTest(50000, 2000);
+    }
+}
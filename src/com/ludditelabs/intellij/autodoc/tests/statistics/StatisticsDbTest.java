@@ -0,0 +1,178 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.statistics;
+
+import junit.framework.TestCase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.sql.*;
+import java.util.Collections;
+
+/**
+ * Schema migrations, journal and statement cache of the statistics
+ * database.
+ */
+public class StatisticsDbTest extends TestCase {
+    private File m_file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        m_file = File.createTempFile("autodoc-stats", ".db");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            if (!m_file.delete())
+                m_file.deleteOnExit();
+        }
+        finally {
+            super.tearDown();
+        }
+    }
+
+    @NotNull
+    private Connection connect() throws Exception {
+        Class.forName("org.sqlite.JDBC");
+        return DriverManager.getConnection("jdbc:sqlite:" + m_file.getPath());
+    }
+
+    private static void execute(@NotNull Connection conn, @NotNull String sql)
+        throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(sql);
+        }
+    }
+
+    public void testCreateSchema() throws Exception {
+        try (StatisticsDb db = new StatisticsDb(m_file.getPath())) {
+            assertEquals(String.valueOf(StatisticsDb.SCHEMA_VERSION),
+                db.getMetaValue("version"));
+
+            SqliteStatisticsStore store = new SqliteStatisticsStore(db);
+            store.addUsage(Collections.singletonList(
+                new UsageRecord("2018-01-01", "feature", "python", 2)));
+            assertEquals(1, store.getUsage("2018-01-01").size());
+        }
+    }
+
+    // Database created by the plugin versions before migrations.
+    public void testOpenLegacy() throws Exception {
+        try (Connection conn = connect()) {
+            execute(conn, "CREATE TABLE meta(name TEXT UNIQUE, value TEXT)");
+            execute(conn, "CREATE TABLE feature_usage(timestamp DATE, feature TEXT, lang TEXT, count INTEGER)");
+            execute(conn, "CREATE UNIQUE INDEX ix_feature_usage ON feature_usage(timestamp, feature, lang)");
+            execute(conn, "INSERT INTO meta(name, value) VALUES ('version', '1')");
+            execute(conn, "INSERT INTO meta(name, value) VALUES ('uuid', 'abc')");
+            execute(conn, "INSERT INTO feature_usage VALUES ('2018-01-01', 'feature', 'python', 3)");
+        }
+
+        try (StatisticsDb db = new StatisticsDb(m_file.getPath())) {
+            assertEquals(String.valueOf(StatisticsDb.SCHEMA_VERSION),
+                db.getMetaValue("version"));
+            assertEquals("abc", db.getMetaValue("uuid"));
+            assertEquals(1, new SqliteStatisticsStore(db)
+                .getUsage("2018-01-01").size());
+        }
+    }
+
+    // Database created by a newer plugin is not downgraded.
+    public void testNewerSchema() throws Exception {
+        String newer = String.valueOf(StatisticsDb.SCHEMA_VERSION + 1);
+        try (StatisticsDb db = new StatisticsDb(m_file.getPath())) {
+            db.setMetaValue("version", newer);
+        }
+
+        try (StatisticsDb db = new StatisticsDb(m_file.getPath())) {
+            assertEquals(newer, db.getMetaValue("version"));
+        }
+    }
+
+    public void testWalJournal() throws Exception {
+        try (StatisticsDb db = new StatisticsDb(m_file.getPath());
+             Statement stmt = db.getConnection().createStatement();
+             ResultSet res = stmt.executeQuery("PRAGMA journal_mode")) {
+            assertTrue(res.next());
+            assertEquals("wal", res.getString(1).toLowerCase());
+        }
+    }
+
+    // Reader is not blocked by the writer's open transaction
+    // and doesn't see its changes until commit.
+    public void testReadDuringWrite() throws Exception {
+        String sql = "SELECT value FROM meta WHERE name=?";
+        try (StatisticsDb db = new StatisticsDb(m_file.getPath())) {
+            db.setMetaValue("key", "old");
+            Connection conn = db.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                db.setMetaValue("key", "new");
+
+                PreparedStatement read = db.prepareRead(sql);
+                read.setString(1, "key");
+                try (ResultSet res = read.executeQuery()) {
+                    assertTrue(res.next());
+                    assertEquals("old", res.getString(1));
+                }
+                conn.commit();
+            }
+            finally {
+                conn.setAutoCommit(true);
+            }
+
+            PreparedStatement read = db.prepareRead(sql);
+            read.setString(1, "key");
+            try (ResultSet res = read.executeQuery()) {
+                assertTrue(res.next());
+                assertEquals("new", res.getString(1));
+            }
+        }
+    }
+
+    public void testCachedStatements() throws Exception {
+        String sql = "SELECT value FROM meta WHERE name=?";
+        PreparedStatement stmt;
+        try (StatisticsDb db = new StatisticsDb(m_file.getPath())) {
+            stmt = db.prepare(sql);
+            assertSame(stmt, db.prepare(sql));
+
+            PreparedStatement read = db.prepareRead(sql);
+            assertSame(read, db.prepareRead(sql));
+            assertNotSame(stmt, read);
+
+            // Reader sees committed writes.
+            db.setMetaValue("key", "value");
+            read.setString(1, "key");
+            try (ResultSet res = read.executeQuery()) {
+                assertTrue(res.next());
+                assertEquals("value", res.getString(1));
+            }
+        }
+
+        // Cached statements are closed with the database.
+        try {
+            stmt.setString(1, "key");
+            stmt.executeQuery().close();
+            fail("Statement is not closed.");
+        }
+        catch (SQLException e) {
+            // Expected.
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.ui;
+
+import com.intellij.execution.impl.ConsoleViewImpl;
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.openapi.util.UserDataHolderBase;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowManager;
+import com.intellij.testFramework.LightPlatformTestCase;
+import com.intellij.testFramework.PlatformTestUtil;
+import com.intellij.util.ThrowableRunnable;
+import com.intellij.util.ui.UIUtil;
+import com.ludditelabs.intellij.autodoc.execution.OutputBuffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Time budgets of the tool window consoles.
+ */
+public class ConsolePerformanceTest extends LightPlatformTestCase {
+    private static final int CONSOLES = 100;
+    private static final int CHUNK = 8 * 1024;
+
+    @Override
+    protected void tearDown() throws Exception {
+        try {
+            closeConsoles();
+        }
+        finally {
+            super.tearDown();
+        }
+    }
+
+    // Close all consoles, this also unregisters the tool window.
+    private void closeConsoles() {
+        ToolWindow win = ToolWindowManager.getInstance(getProject())
+            .getToolWindow("Autodoc");
+        if (win != null)
+            win.getContentManager().removeAllContents(true);
+    }
+
+    @NotNull
+    private static String output(int sizeMb) {
+        String line = "module.py:10: [D103] Missing docstring in public function.\n";
+        StringBuilder sb = new StringBuilder(sizeMb * 1024 * 1024 + line.length());
+        while (sb.length() < sizeMb * 1024 * 1024)
+            sb.append(line);
+        return sb.toString();
+    }
+
+    // Output is passed by chunks like autodoc process output is read.
+    private void doTestStreamOutput(int sizeMb, int expectedMs) {
+        final String content = output(sizeMb);
+        final AutodocConsoleStream[] stream = new AutodocConsoleStream[1];
+        PlatformTestUtil.startPerformanceTest(
+            "stream output " + sizeMb + " MB", expectedMs,
+            new ThrowableRunnable() {
+                @Override
+                public void run() throws Throwable {
+                    stream[0] = new AutodocConsoleStream(getProject());
+                    stream[0].start();
+                    for (int i = 0; i < content.length(); i += CHUNK) {
+                        stream[0].onOutput(content.substring(
+                            i, Math.min(content.length(), i + CHUNK)), false);
+                    }
+                    stream[0].finish();
+                    UIUtil.dispatchAllInvocationEvents();
+
+                    // Console prints deferred text by timer.
+                    ConsoleView console = AutodocToolWindow.activateConsole(getProject());
+                    if (console instanceof ConsoleViewImpl)
+                        ((ConsoleViewImpl)console).flushDeferredText();
+                }
+            })
+            .cpuBound()
+            .assertTiming();
+
+        // Output is bigger than the memory threshold.
+        OutputBuffer buffer = stream[0].buffer();
+        assertTrue(buffer.isSpilled());
+        assertEquals(content.length(), buffer.length());
+    }
+
+    public void testStreamOutput1Mb() {
+        doTestStreamOutput(1, 1000);
+    }
+
+    public void testStreamOutput4Mb() {
+        doTestStreamOutput(4, 4000);
+    }
+
+    public void testActivateConsoles() {
+        PlatformTestUtil.startPerformanceTest(
+            CONSOLES + " consoles", 3000,
+            new ThrowableRunnable() {
+                @Override
+                public void run() throws Throwable {
+                    for (int i = 0; i < CONSOLES; i++) {
+                        AutodocToolWindow.activateConsole(getProject(),
+                            new UserDataHolderBase(), "Console " + i);
+                    }
+                    closeConsoles();
+                }
+            })
+            .cpuBound()
+            .assertTiming();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.timing;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Time spent by a single autodoc run in each of its phases.
+ *
+ * Phases may be recorded from several threads. Time of the same phase
+ * is summed up, so for parallel project runs it's the total time of all
+ * processes, not the wall time.
+ *
+ * Some phases (document write, PSI commit, VFS refresh) are finished
+ * after the task itself, they're added to the run later.
+ *
+ * Usage:
+ * <pre>
+ *     long start = timings.start();
+ *     ...
+ *     timings.finish(RunTimings.Phase.EXEC, start);
+ * </pre>
+ */
+public class RunTimings {
+    public enum Phase {
+        CHECK_EXE("checkExe"),
+        SPAWN("spawn"),
+        EXEC("exec"),
+        OUTPUT("output"),
+        TEMP_READ("temp read"),
+        REPLACE("replaceContent"),
+        PSI_COMMIT("PSI commit"),
+        VFS_REFRESH("VFS refresh");
+
+        @NotNull private final String m_title;
+
+        Phase(@NotNull String title) {
+            m_title = title;
+        }
+
+        @NotNull
+        public String title() {
+            return m_title;
+        }
+    }
+
+    @NotNull private final String m_name;
+    private final long m_start = System.nanoTime();
+    private volatile long m_total = -1;
+    @NotNull private final AtomicLongArray m_nanos =
+        new AtomicLongArray(Phase.values().length);
+    @NotNull private final AtomicIntegerArray m_counts =
+        new AtomicIntegerArray(Phase.values().length);
+
+    /**
+     * Construct timings.
+     *
+     * @param name run kind, runs are grouped by it in the summary.
+     */
+    public RunTimings(@NotNull String name) {
+        m_name = name;
+    }
+
+    @NotNull
+    public String name() {
+        return m_name;
+    }
+
+    /** Start time of a phase. */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the phase.
+     *
+     * @param phase finished phase.
+     * @param start phase start time returned by start().
+     */
+    public void finish(@NotNull Phase phase, long start) {
+        add(phase, System.nanoTime() - start);
+    }
+
+    /** Add time in nanoseconds to the phase. */
+    public void add(@NotNull Phase phase, long nanos) {
+        m_nanos.addAndGet(phase.ordinal(), Math.max(0, nanos));
+        m_counts.incrementAndGet(phase.ordinal());
+    }
+
+    /** Return true if the phase is recorded at least once. */
+    public boolean has(@NotNull Phase phase) {
+        return m_counts.get(phase.ordinal()) > 0;
+    }
+
+    /** Phase time in milliseconds. */
+    public long millis(@NotNull Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(m_nanos.get(phase.ordinal()));
+    }
+
+    /** Mark the run as finished. */
+    public void finishRun() {
+        m_total = System.nanoTime() - m_start;
+    }
+
+    /** Run wall time in milliseconds or -1 if it's not finished yet. */
+    public long totalMillis() {
+        long total = m_total;
+        return total < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(total);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(m_name);
+        sb.append(": total ").append(totalMillis()).append(" ms");
+        for (Phase phase : Phase.values()) {
+            if (has(phase)) {
+                sb.append(", ").append(phase.title()).append(' ')
+                    .append(millis(phase)).append(" ms");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.timing;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * In-memory ring of recent autodoc runs.
+ *
+ * Keeps timings of the last <pre>-Dludditelabs.autodoc.timings.history=N</pre>
+ * runs (default is 100) and builds p50/p95 summary of each phase,
+ * see AutodocShowTimings action.
+ */
+public class RunTimingsHistory {
+    private static final Logger LOG = Logger.getInstance("ludditelabs.autodoc.timings");
+
+    @NotNull private final RunTimings[] m_runs;
+    private int m_next = 0;
+    private int m_count = 0;
+
+    public RunTimingsHistory() {
+        m_runs = new RunTimings[Math.max(1,
+            Integer.getInteger("ludditelabs.autodoc.timings.history", 100))];
+    }
+
+    public static RunTimingsHistory getInstance() {
+        return ServiceManager.getService(RunTimingsHistory.class);
+    }
+
+    /** Add finished run, the oldest one is dropped if the ring is full. */
+    public synchronized void add(@NotNull RunTimings timings) {
+        LOG.debug(timings.toString());
+        m_runs[m_next] = timings;
+        m_next = (m_next + 1) % m_runs.length;
+        m_count = Math.min(m_count + 1, m_runs.length);
+    }
+
+    /** Recent runs, the oldest first. */
+    @NotNull
+    public synchronized List<RunTimings> runs() {
+        List<RunTimings> result = new ArrayList<>(m_count);
+        int first = (m_next - m_count + m_runs.length) % m_runs.length;
+        for (int i = 0; i < m_count; i++)
+            result.add(m_runs[(first + i) % m_runs.length]);
+        return result;
+    }
+
+    /**
+     * Nearest-rank percentile of sorted values.
+     *
+     * @param sorted non-empty array sorted in ascending order.
+     * @param p percentile, 0..100.
+     * @return percentile value.
+     */
+    public static long percentile(@NotNull long[] sorted, int p) {
+        int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    private static void appendRow(@NotNull StringBuilder sb, @NotNull String title,
+                                  @NotNull List<Long> values) {
+        long[] sorted = new long[values.size()];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = values.get(i);
+        Arrays.sort(sorted);
+        sb.append(String.format("  %-16s %6d %8d %8d %8d\n", title,
+            sorted.length, percentile(sorted, 50), percentile(sorted, 95),
+            sorted[sorted.length - 1]));
+    }
+
+    /**
+     * Build text summary of recent runs.
+     *
+     * Runs are grouped by name, for each phase there is number of runs
+     * where the phase is present and its p50, p95 and max time.
+     *
+     * @return summary text.
+     */
+    @NotNull
+    public String summary() {
+        List<RunTimings> runs = runs();
+        if (runs.isEmpty())
+            return "No autodoc runs yet.\n";
+
+        Map<String, List<RunTimings>> groups = new TreeMap<>();
+        for (RunTimings run : runs) {
+            List<RunTimings> group = groups.get(run.name());
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(run.name(), group);
+            }
+            group.add(run);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Last %d runs, time in ms.\n", runs.size()));
+        for (Map.Entry<String, List<RunTimings>> group : groups.entrySet()) {
+            sb.append('\n').append(group.getKey()).append('\n');
+            sb.append(String.format("  %-16s %6s %8s %8s %8s\n",
+                "phase", "runs", "p50", "p95", "max"));
+
+            List<Long> totals = new ArrayList<>();
+            for (RunTimings run : group.getValue()) {
+                if (run.totalMillis() >= 0)
+                    totals.add(run.totalMillis());
+            }
+            if (!totals.isEmpty())
+                appendRow(sb, "total", totals);
+
+            for (RunTimings.Phase phase : RunTimings.Phase.values()) {
+                List<Long> values = new ArrayList<>();
+                for (RunTimings run : group.getValue()) {
+                    if (run.has(phase))
+                        values.add(run.millis(phase));
+                }
+                if (!values.isEmpty())
+                    appendRow(sb, phase.title(), values);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2018 Luddite Labs Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ludditelabs.intellij.autodoc.ui;
+
+import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.ludditelabs.intellij.autodoc.execution.AutodocOutputListener;
+import com.ludditelabs.intellij.autodoc.execution.OutputBuffer;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams autodoc output to the project console as it arrives.
+ *
+ * Output is printed by batches in the AWT thread. If the AWT thread
+ * can't keep up then pending output is dropped to not hold it in memory.
+ *
+ * Whole output is also written to OutputBuffer, which moves it to a temp
+ * file after the threshold (<pre>-Dludditelabs.autodoc.output.memory=N</pre>
+ * chars), so memory usage doesn't depend on the output size. Buffer of
+ * the last finished run is kept to let user read full output; buffers of
+ * runs still in progress are never touched by other runs.
+ */
+public class AutodocConsoleStream implements AutodocOutputListener {
+    private static final Key<OutputBuffer> BUFFER_KEY = new Key<>("AutodocOutputBuffer");
+    private static final Object BUFFER_LOCK = new Object();
+    private static final int MAX_PENDING = 1024 * 1024;
+
+    private static class Chunk {
+        @NotNull final String text;
+        @NotNull final ConsoleViewContentType type;
+
+        Chunk(@NotNull String text, @NotNull ConsoleViewContentType type) {
+            this.text = text;
+            this.type = type;
+        }
+    }
+
+    @NotNull private final Project m_project;
+    @NotNull private final OutputBuffer m_buffer;
+    @NotNull private final List<Chunk> m_pending = new ArrayList<>();
+    private int m_pendingSize = 0;
+    private boolean m_scheduled = false;
+    private boolean m_truncated = false;
+    private volatile boolean m_hasOutput = false;
+
+    /**
+     * Construct stream.
+     *
+     * @param project project which console is used.
+     */
+    public AutodocConsoleStream(@NotNull Project project) {
+        m_project = project;
+        m_buffer = new OutputBuffer(Integer.getInteger(
+            "ludditelabs.autodoc.output.memory", 256 * 1024));
+    }
+
+    /**
+     * Start new output: clear the console.
+     */
+    public void start() {
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                if (!m_project.isDisposed())
+                    AutodocToolWindow.clearConsole(m_project);
+            }
+        });
+    }
+
+    /**
+     * Finish output.
+     *
+     * If the output is moved to the disk then the path is printed
+     * to the console. The buffer replaces the kept buffer of the
+     * previous finished run.
+     */
+    public void finish() {
+        m_buffer.close();
+
+        OutputBuffer previous;
+        synchronized (BUFFER_LOCK) {
+            previous = m_project.getUserData(BUFFER_KEY);
+            m_project.putUserData(BUFFER_KEY, m_buffer);
+        }
+        if (previous != null && previous != m_buffer)
+            previous.dispose();
+
+        File file = m_buffer.file();
+        if (file != null) {
+            printInfo("\nFull output: " + file.getPath() + "\n");
+        }
+    }
+
+    /**
+     * Print informational message.
+     *
+     * It doesn't affect hasOutput() and is not saved to the buffer.
+     *
+     * @param text message text.
+     */
+    public void printInfo(@NotNull String text) {
+        enqueue(new Chunk(text, ConsoleViewContentType.SYSTEM_OUTPUT));
+    }
+
+    // Buffer with the whole output, used by tests.
+    @NotNull
+    OutputBuffer buffer() {
+        return m_buffer;
+    }
+
+    /** Return true if there was a non-blank output. */
+    public boolean hasOutput() {
+        return m_hasOutput;
+    }
+
+    @Override
+    public void onOutput(@NotNull String text, boolean stderr) {
+        if (text.isEmpty())
+            return;
+
+        if (!m_hasOutput && !text.trim().isEmpty())
+            m_hasOutput = true;
+
+        m_buffer.append(text);
+        enqueue(new Chunk(text, stderr
+            ? ConsoleViewContentType.ERROR_OUTPUT
+            : ConsoleViewContentType.NORMAL_OUTPUT));
+    }
+
+    private void enqueue(@NotNull Chunk chunk) {
+        synchronized (m_pending) {
+            if (m_pendingSize + chunk.text.length() > MAX_PENDING) {
+                m_truncated = true;
+            }
+            else {
+                m_pending.add(chunk);
+                m_pendingSize += chunk.text.length();
+            }
+
+            if (m_scheduled)
+                return;
+            m_scheduled = true;
+        }
+
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    // Print pending output, must be called in AWT thread.
+    private void flush() {
+        List<Chunk> chunks;
+        boolean truncated;
+        synchronized (m_pending) {
+            chunks = new ArrayList<>(m_pending);
+            truncated = m_truncated;
+            m_pending.clear();
+            m_pendingSize = 0;
+            m_truncated = false;
+            m_scheduled = false;
+        }
+
+        if (m_project.isDisposed())
+            return;
+
+        ConsoleView console = AutodocToolWindow.activateConsole(m_project);
+        for (Chunk chunk : chunks)
+            console.print(chunk.text, chunk.type);
+        if (truncated) {
+            console.print("\n... output is skipped ...\n",
+                ConsoleViewContentType.SYSTEM_OUTPUT);
+        }
+    }
+}
@@ -19,18 +19,22 @@ package com.ludditelabs.intellij.autodoc.ui;
 import com.intellij.execution.filters.TextConsoleBuilder;
 import com.intellij.execution.filters.TextConsoleBuilderFactory;
 import com.intellij.execution.ui.ConsoleView;
+import com.intellij.execution.ui.ConsoleViewContentType;
 import com.intellij.openapi.module.Module;
 import com.intellij.openapi.module.ModuleUtilCore;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.IconLoader;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.UserDataHolder;
+import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowAnchor;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.ui.content.*;
 import com.intellij.util.ObjectUtils;
+import com.ludditelabs.intellij.autodoc.execution.AutodocScheduler;
+import com.ludditelabs.intellij.autodoc.timing.RunTimingsHistory;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -46,6 +50,7 @@ public class AutodocToolWindow {
     private static final String TOOL_WINDOW_KEY = "Autodoc";
     private static final String HOLDER_KEY = "autodoc_console_holder";
     private static final Key<ConsoleView> CONSOLE_KEY = new Key<>("AutodocOutConsole");
+    private static final Key<UserDataHolder> TIMINGS_KEY = new Key<>("AutodocTimingsHolder");
     private static final Icon TOOL_WINDOW_ICON = IconLoader.getIcon("/icons/tool_window.png");
 
     // Helper method to get or create & register tool window for the plugin.
@@ -117,6 +122,8 @@ public class AutodocToolWindow {
 
         // Add the console to the tool window.
         Content content = factory.createContent(console.getComponent(), title, true);
+        // Release console editor when the content is closed.
+        content.setDisposer(console);
         win.getContentManager().addContent(content);
         return console;
     }
@@ -173,6 +180,32 @@ public class AutodocToolWindow {
         return activateConsole(project, file, file.getName());
     }
 
+    /**
+     * Show p50/p95 timings of recent autodoc runs.
+     *
+     * Timings and process limit stats are printed to a separate console
+     * of the tool window.
+     *
+     * @param project current project.
+     * @see RunTimingsHistory
+     * @see AutodocScheduler
+     */
+    public static void showTimings(@NotNull Project project) {
+        // Console is attached to the holder, so keep one per project.
+        UserDataHolder holder = project.getUserData(TIMINGS_KEY);
+        if (holder == null) {
+            holder = new UserDataHolderBase();
+            project.putUserData(TIMINGS_KEY, holder);
+        }
+
+        ConsoleView console = activateConsole(project, holder, "Timings");
+        console.clear();
+        console.print(RunTimingsHistory.getInstance().summary(),
+            ConsoleViewContentType.NORMAL_OUTPUT);
+        console.print("\n" + AutodocScheduler.getInstance().summary(),
+            ConsoleViewContentType.NORMAL_OUTPUT);
+    }
+
     /**
      * Clear console content.
      *